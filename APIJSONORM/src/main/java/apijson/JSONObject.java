@@ -151,6 +151,7 @@ public class JSONObject extends com.alibaba.fastjson.JSONObject {
 	public static final String KEY_ORDER = "@order"; //排序方式
 	public static final String KEY_RAW = "@raw"; // 自定义原始 SQL 片段
 	public static final String KEY_JSON = "@json"; //SQL Server 把字段转为 JSON 输出
+	public static final String KEY_HINT = "@hint"; //优化器提示，只允许后端 SQL_HINT_MAP 里配置的
 
 	public static final List<String> TABLE_KEY_LIST;
 	static {
@@ -172,6 +173,7 @@ public class JSONObject extends com.alibaba.fastjson.JSONObject {
 		TABLE_KEY_LIST.add(KEY_ORDER);
 		TABLE_KEY_LIST.add(KEY_RAW);
 		TABLE_KEY_LIST.add(KEY_JSON);
+		TABLE_KEY_LIST.add(KEY_HINT);
 	}
 
 	//@key关键字都放这个类 >>>>>>>>>>>>>>>>>>>>>>
@@ -393,6 +395,21 @@ public class JSONObject extends com.alibaba.fastjson.JSONObject {
 		return puts(KEY_JSON, keys);
 	}
 
+	/**set optimizer hints
+	 * @param hints  hint0(arg0,arg1...), hint1, hint2(arg0) ...
+	 * @return {@link #setHint(String)}
+	 */
+	public JSONObject setHint(String... hints) {
+		return setHint(StringUtil.getString(hints, ";"));
+	}
+	/**set optimizer hints
+	 * @param hints  "hint0(arg0,arg1...);hint1;hint2(arg0)..."
+	 * @return
+	 */
+	public JSONObject setHint(String hints) {
+		return puts(KEY_HINT, hints);
+	}
+
 	/**用 setJson 替代。
 	 * set keys to cast to json
 	 * @param keys  "key0,key1,key2..."
@@ -6,6 +6,7 @@ This source code is licensed under the Apache License Version 2.0.*/
 package apijson;
 
 import java.text.SimpleDateFormat;
+import java.util.function.Supplier;
 
 /**测试用Log
  * @modifier Lemon
@@ -65,6 +66,15 @@ public class Log {
 			logInfo(TAG,msg,"DEBUG");
 		}
 	}
+	/**延迟生成日志内容，只有真正输出时才调用 msg.get()，避免拼接字符串、序列化 JSON 等浪费性能
+	 * @param TAG
+	 * @param msg
+	 */
+	public static void d(String TAG, Supplier<String> msg) {
+		if (DEBUG) {
+			logInfo(TAG, msg.get(), "DEBUG");
+		}
+	}
 
 	/**
 	 * Forced debug
@@ -74,6 +84,13 @@ public class Log {
 	public static void fd(String TAG, String msg) {
 		logInfo(TAG,msg,"DEBUG");
 	}
+	/**延迟生成日志内容，见 {@link #d(String, Supplier)}
+	 * @param TAG
+	 * @param msg
+	 */
+	public static void fd(String TAG, Supplier<String> msg) {
+		logInfo(TAG, msg.get(), "DEBUG");
+	}
 
 	/**
 	 * Generate separation line
@@ -94,6 +111,15 @@ public class Log {
 			logInfo(TAG,msg,"VERBOSE");
 		}
 	}
+	/**延迟生成日志内容，见 {@link #d(String, Supplier)}
+	 * @param TAG
+	 * @param msg
+	 */
+	public static void v(String TAG, Supplier<String> msg) {
+		if (DEBUG) {
+			logInfo(TAG, msg.get(), "VERBOSE");
+		}
+	}
 
 	/**
 	 * @param TAG
@@ -104,6 +130,15 @@ public class Log {
 			logInfo(TAG,msg,"INFO");
 		}
 	}
+	/**延迟生成日志内容，见 {@link #d(String, Supplier)}
+	 * @param TAG
+	 * @param msg
+	 */
+	public static void i(String TAG, Supplier<String> msg) {
+		if (DEBUG) {
+			logInfo(TAG, msg.get(), "INFO");
+		}
+	}
 
 	/**
 	 * @param TAG
@@ -114,6 +149,15 @@ public class Log {
 			logInfo(TAG,msg,"ERROR");
 		}
 	}
+	/**延迟生成日志内容，见 {@link #d(String, Supplier)}
+	 * @param TAG
+	 * @param msg
+	 */
+	public static void e(String TAG, Supplier<String> msg) {
+		if (DEBUG) {
+			logInfo(TAG, msg.get(), "ERROR");
+		}
+	}
 
 	/**
 	 * @param TAG
@@ -124,5 +168,14 @@ public class Log {
 			logInfo(TAG,msg,"WARN");
 		}
 	}
+	/**延迟生成日志内容，见 {@link #d(String, Supplier)}
+	 * @param TAG
+	 * @param msg
+	 */
+	public static void w(String TAG, Supplier<String> msg) {
+		if (DEBUG) {
+			logInfo(TAG, msg.get(), "WARN");
+		}
+	}
 
 }
@@ -11,6 +11,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -54,13 +55,27 @@ public class AbstractFunctionParser implements FunctionParser {
 
 	// <methodName, JSONObject>
 	// <isContain, <arguments:"array,key", tag:null, methods:null>>
-	public static Map<String, JSONObject> FUNCTION_MAP;
-	public static Map<String, JSONObject> SCRIPT_MAP;
+	// 每次调用远程函数都会读，启动后运行时重新加载必须通过 setFunctionMap, setScriptMap 整体替换，不能直接修改
+	public static volatile Map<String, JSONObject> FUNCTION_MAP;
+	public static volatile Map<String, JSONObject> SCRIPT_MAP;
 	static {
 		FUNCTION_MAP = new HashMap<>();
 		SCRIPT_MAP = new HashMap<>();
 	}
 
+	/**整体替换 FUNCTION_MAP，生成不可修改的新 Map 后通过 volatile 引用一次性发布，读取的请求不用加锁，也不会读到只改了一半的配置
+	 * @param functionMap
+	 */
+	public static void setFunctionMap(@NotNull Map<String, JSONObject> functionMap) {
+		FUNCTION_MAP = Collections.unmodifiableMap(new HashMap<>(functionMap));
+	}
+	/**整体替换 SCRIPT_MAP，见 {@link #setFunctionMap}
+	 * @param scriptMap
+	 */
+	public static void setScriptMap(@NotNull Map<String, JSONObject> scriptMap) {
+		SCRIPT_MAP = Collections.unmodifiableMap(new HashMap<>(scriptMap));
+	}
+
 	private RequestMethod method;
 	private String tag;
 	private int version;
@@ -22,6 +22,7 @@ import javax.activation.UnsupportedDataTypeException;
 import java.rmi.ServerException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -43,6 +44,20 @@ import static apijson.orm.SQLConfig.TYPE_ITEM;
 public abstract class AbstractObjectParser implements ObjectParser {
 	private static final String TAG = "AbstractObjectParser";
 
+	/**
+	 * 为 true 则数组内 "User":{ "id@":"/Moment/userId" } 这种通过主键引用数组主表字段的副表，
+	 * 在第 0 项时收集主表全部数据的引用值，用一条 id{} IN 查询批量查出后分发到每一项的缓存，避免每一项都查一次。
+	 * 默认关闭，开启后副表的 SQL 会从每项一条 id = ? 变为一条 id IN(...)，需确认 IN 列表长度及执行计划符合预期
+	 */
+	public static boolean ENABLE_ARRAY_CHILD_BATCH = false;
+
+	/**
+	 * 为 true 则数组内 "Comment[]":{ "count":3, "Comment":{ "momentId@":"[]/Moment/id" } } 这种按父项分别分页的子数组，
+	 * 在父数组第 0 项时用一条按 momentId 分组分页的 SQL 查出全部父项的子数组，见 {@link AbstractSQLExecutor#executePartitionPage}。
+	 * 默认关闭，每个父项的子项都很多时，对全部子项排序编号可能比每一项单独分页查询更慢，需确认数据分布及执行计划符合预期后再开启
+	 */
+	public static boolean ENABLE_ARRAY_CHILD_PAGE_BATCH = false;
+
 	@NotNull
 	protected AbstractParser<?> parser;
 	public AbstractObjectParser setParser(AbstractParser<?> parser) {
@@ -56,22 +71,38 @@ public abstract class AbstractObjectParser implements ObjectParser {
 	protected SQLConfig arrayConfig;//不用final是为了recycle
 	protected boolean isSubquery;
 
-	protected final int type;
-	protected final String arrayTable;
-	protected final List<Join> joinList;
-	protected final boolean isTable;
-	protected final boolean isArrayMainTable;
+	// 以下不用final是为了recycle后在 AbstractParser 内复用
+	protected int type;
+	protected String arrayTable;
+	protected List<Join> joinList;
+	protected boolean isTable;
+	protected boolean isArrayMainTable;
 
-	protected final boolean tri;
+	protected boolean tri;
 	/**
 	 * TODO Parser内要不因为 非 TYPE_ITEM_CHILD_0 的Table 为空导致后续中断。
 	 */
-	protected final boolean drop;
+	protected boolean drop;
 
 	/**for single object
 	 */
 	public AbstractObjectParser(@NotNull JSONObject request, String parentPath, SQLConfig arrayConfig
 			, boolean isSubquery, boolean isTable, boolean isArrayMainTable) throws Exception {
+		init(request, parentPath, arrayConfig, isSubquery, isTable, isArrayMainTable);
+	}
+
+	/**初始化，和构造方法参数一致，{@link #recycle()} 后可重新初始化来复用，减少每个对象都新建 ObjectParser 及其内部各种 Map
+	 * @param request
+	 * @param parentPath
+	 * @param arrayConfig
+	 * @param isSubquery
+	 * @param isTable
+	 * @param isArrayMainTable
+	 * @return
+	 * @throws Exception
+	 */
+	public AbstractObjectParser init(@NotNull JSONObject request, String parentPath, SQLConfig arrayConfig
+			, boolean isSubquery, boolean isTable, boolean isArrayMainTable) throws Exception {
 		if (request == null) {
 			throw new IllegalArgumentException(TAG + ".ObjectParser  request == null!!!");
 		}
@@ -105,11 +136,13 @@ public abstract class AbstractObjectParser implements ObjectParser {
 			request.remove(KEY_DROP);
 		}
 
+        rawKeyList = null;
         if (isTable) {
             String raw = request.getString(JSONRequest.KEY_RAW);
             String[] rks = StringUtil.split(raw);
             rawKeyList = rks == null || rks.length <= 0 ? null : Arrays.asList(rks);
         }
+        return this;
     }
 
 	@Override
@@ -195,9 +228,9 @@ public abstract class AbstractObjectParser implements ObjectParser {
 			this.table = tentry.getKey();
 			this.alias = tentry.getValue();
 
-			Log.d(TAG, "AbstractObjectParser  parentPath = " + parentPath + "; name = " + name + "; table = " + table + "; alias = " + alias);
-			Log.d(TAG, "AbstractObjectParser  type = " + type + "; isTable = " + isTable + "; isArrayMainTable = " + isArrayMainTable);
-			Log.d(TAG, "AbstractObjectParser  isEmpty = " + request.isEmpty() + "; tri = " + tri + "; drop = " + drop);
+			Log.d(TAG, () -> "AbstractObjectParser  parentPath = " + parentPath + "; name = " + name + "; table = " + table + "; alias = " + alias);
+			Log.d(TAG, () -> "AbstractObjectParser  type = " + type + "; isTable = " + isTable + "; isArrayMainTable = " + isArrayMainTable);
+			Log.d(TAG, () -> "AbstractObjectParser  isEmpty = " + request.isEmpty() + "; tri = " + tri + "; drop = " + drop);
 
 			breakParse = false;
 
@@ -244,6 +277,9 @@ public abstract class AbstractObjectParser implements ObjectParser {
 					int index = 0;
                     //hasOtherKeyNotFun = false;
 
+					// 结构相同的请求复用编译好的 key 解析方式
+					ObjectPlan plan = parser == null ? null : parser.getObjectPlan(request);
+
 					for (Entry<String, Object> entry : set) {
 						if (isBreakParse()) {
 							break;
@@ -256,12 +292,9 @@ public abstract class AbstractObjectParser implements ObjectParser {
                         String key = entry.getKey();
 
 						try {
-                            boolean startsWithAt = key.startsWith("@");
-                            //if (startsWithAt || (key.endsWith("()") == false)) {
-                            //    hasOtherKeyNotFun = true;
-                            //}
+							int flags = plan != null ? plan.get(key) : ObjectPlan.getFlags(key);
 
-							if (startsWithAt || key.endsWith("@") || (key.endsWith("<>") && value instanceof JSONObject)) {
+							if ((flags & ObjectPlan.FLAG_PARSE) != 0 || ((flags & ObjectPlan.FLAG_CONTAIN) != 0 && value instanceof JSONObject)) {
 								if (onParse(key, value) == false) {
 									invalidate();
 								}
@@ -271,16 +304,19 @@ public abstract class AbstractObjectParser implements ObjectParser {
 									childMap.put(key, (JSONObject)value);
 								}
 								else {  // 直接解析并替换原来的，[]:{} 内必须直接解析，否则会因为丢掉count等属性，并且total@:"/[]/total"必须在[]:{} 后！
-									response.put(key, onChildParse(index, key, (JSONObject)value));
+									JSON child = onChildParse(index, key, (JSONObject)value);
+									if (parser == null || parser.onStreamChild(path, key, child) == false) {  // 边解析边输出时已直接写出
+										response.put(key, child);
+									}
 									index ++;
 								}
 							}
 							else if ((method == POST || method == PUT) && value instanceof JSONArray
-									&& JSONRequest.isTableArray(key)) {  // JSONArray，批量新增或修改，往下一级提取
+									&& (flags & ObjectPlan.FLAG_TABLE_ARRAY) != 0) {  // JSONArray，批量新增或修改，往下一级提取
 								onTableArrayParse(key, (JSONArray) value);
 							}
 							else if (method == PUT && value instanceof JSONArray && (whereList == null || whereList.contains(key) == false)
-									&& StringUtil.isName(key.replaceFirst("[+-]$", ""))) {  // PUT JSONArray
+									&& (flags & ObjectPlan.FLAG_NAME) != 0) {  // PUT JSONArray
 								onPUTArrayParse(key, (JSONArray) value);
 							}
 							else {  // JSONArray或其它Object，直接填充
@@ -399,7 +435,7 @@ public abstract class AbstractObjectParser implements ObjectParser {
 
 				//先尝试获取，尽量保留缺省依赖路径，这样就不需要担心路径改变
 				Object target = onReferenceParse(targetPath);
-				Log.i(TAG, "onParse targetPath = " + targetPath + "; target = " + target);
+				Log.i(TAG, () -> "onParse targetPath = " + targetPath + "; target = " + target);
 
 				if (target == null) {//String#equals(null)会出错
 					Log.d(TAG, "onParse  target == null  >>  return true;");
@@ -890,6 +926,13 @@ public abstract class AbstractObjectParser implements ObjectParser {
 			result = parser.getArrayMainCacheItem(parentPath.substring(0, parentPath.lastIndexOf("[]") + 2), position);
 		}
 		else {
+			if (ENABLE_ARRAY_CHILD_BATCH && isArrayMainTable == false && arrayConfig == null) {
+				onArrayChildBatch();
+			}
+			else if (ENABLE_ARRAY_CHILD_PAGE_BATCH && isArrayMainTable && position == 0) {
+				onArrayChildPageBatch();
+			}
+
 			result = parser.executeSQL(sqlConfig, isSubquery);
 
 			boolean isSimpleArray = false;
@@ -938,6 +981,235 @@ public abstract class AbstractObjectParser implements ObjectParser {
 	}
 
 
+	/**数组第 0 项内的副表通过 id@ 引用同一项内的主表字段时，把全部项的查询合并为一条 id{} IN 查询，
+	 * 查出的数据按每一项会生成的 SQL 放入 SQLExecutor 缓存，后续每一项都直接命中缓存。
+	 * 只处理 id 唯一、没有其它引用、函数、@combine、JOIN、聚合等会导致结果不等价的情况
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	protected void onArrayChildBatch() throws Exception {
+		SQLConfig config = sqlConfig;
+		if (isTable == false || isSubquery || config == null || config.getCount() != 1 || config.isExplain()
+				|| RequestMethod.isGetMethod(method, true) == false || parentPath == null || parentPath.endsWith("[]/0") == false) {
+			return;
+		}
+
+		String arrayPath = parentPath.substring(0, parentPath.length() - 2);
+		List<JSONObject> mainList = parser.getArrayMainCache(arrayPath);
+		ObjectParser mainParser = parser.arrayObjectParserCacheMap.get(arrayPath);
+		String mainPath = mainParser == null ? null : mainParser.getPath();
+		if (mainList == null || mainList.size() <= 1 || mainPath == null || mainPath.startsWith(parentPath + "/") == false) {
+			return;
+		}
+
+		if (StringUtil.isEmpty(config.getCombine(), true) == false || config.getFrom() != null
+				|| StringUtil.isEmpty(config.getGroup(), true) == false || (config.getHaving() != null && config.getHaving().isEmpty() == false)
+				|| (config.getJoinList() != null && config.getJoinList().isEmpty() == false)
+				|| (functionMap != null && functionMap.isEmpty() == false)) {
+			return;
+		}
+
+		String idKey = config.getIdKey();
+		Object id = config.getWhere(idKey, true);
+		if (id == null || config.getWhere() == null) {
+			return;
+		}
+
+		List<String> column = config.getColumn();
+		if (column != null) {  // 需要用主键分发查询结果
+			for (String c : column) {
+				if (StringUtil.isName(c) == false) {
+					return;
+				}
+			}
+			if (column.contains(idKey) == false) {
+				return;
+			}
+		}
+
+		// 只允许一个 id@ 引用同一项内主表的字段
+		String refKey = null;
+		for (Entry<String, Object> entry : request.entrySet()) {
+			String k = entry.getKey();
+			if (k == null || k.endsWith("()") || (k.endsWith("@") && k.equals(idKey + "@") == false)) {
+				return;
+			}
+			if (k.equals(idKey + "@")) {
+				Object v = entry.getValue();
+				String targetPath = v instanceof String ? AbstractParser.getValuePath(parentPath, (String) v) : null;
+				if (targetPath == null || targetPath.startsWith(mainPath + "/") == false) {
+					return;
+				}
+				refKey = targetPath.substring(mainPath.length() + 1);
+			}
+		}
+		if (refKey == null || StringUtil.isName(refKey) == false) {
+			return;
+		}
+
+		Set<Object> valueSet = new LinkedHashSet<>();
+		for (JSONObject item : mainList) {
+			Object v = item == null ? null : item.get(refKey);
+			if (v != null) {
+				valueSet.add(v);
+			}
+		}
+		if (valueSet.size() <= 1) {
+			return;
+		}
+
+		SQLExecutor executor = parser.getSQLExecutor();
+		Map<String, Object> where = config.getWhere();
+		Map<String, List<String>> combineMap = config.getCombineMap();
+		Map<String, List<String>> originCombineMap = new LinkedHashMap<>();
+		for (Entry<String, List<String>> entry : combineMap.entrySet()) {
+			originCombineMap.put(entry.getKey(), entry.getValue() == null ? null : new ArrayList<>(entry.getValue()));
+		}
+		Map<String, Object> originWhere = new LinkedHashMap<>(where);
+		Object originIdIn = config.getIdIn();
+
+		try {
+			List<Object> valueList = new ArrayList<>(valueSet);
+			config.putWhere(idKey, null, false);
+			config.setId(null);
+			config.putWhere(idKey + "{}", valueList, true);
+			config.setIdIn(valueList);
+			config.setCount(valueList.size());
+
+			JSONObject result = parser.executeSQL(config, false);
+			List<JSONObject> list = result == null ? null : (List<JSONObject>) result.remove(AbstractSQLExecutor.KEY_RAW_LIST);
+			if (list == null && result != null && result.isEmpty() == false) {
+				list = Arrays.asList(result);
+			}
+
+			Map<String, JSONObject> idMap = new HashMap<>();
+			if (list != null) {
+				for (JSONObject item : list) {
+					Object v = item == null ? null : item.get(idKey);
+					if (v != null) {
+						idMap.put(v.toString(), item);
+					}
+				}
+			}
+
+			// 按每一项会生成的 SQL 缓存，和单独查询时一样，查不到的也缓存空列表来避免再次查询
+			config.setWhere(new LinkedHashMap<>(originWhere));
+			config.setCombineMap(originCombineMap);
+			config.setIdIn(originIdIn);
+			config.setCount(1);
+			for (Object v : valueList) {
+				config.getWhere().put(idKey, v);
+				config.setId(v);
+
+				JSONObject item = idMap.get(v.toString());
+				List<JSONObject> cache = item == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(item));
+				executor.putCache(config.getSQL(false), cache, config);
+			}
+		}
+		finally {
+			config.setWhere(originWhere);
+			config.setCombineMap(originCombineMap);
+			config.setId(id);
+			config.setIdIn(originIdIn);
+			config.setCount(1);
+		}
+	}
+
+
+	/**父数组第 0 项内的子数组主表通过 key@ 引用同一项内父数组主表的字段时，
+	 * 把全部父项的子数组分页查询合并为一条分组分页的 SQL，查出的数据按每一项会生成的 SQL 放入 SQLExecutor 缓存。
+	 * 只处理没有其它引用、函数、@combine、JOIN、聚合、查总数 等会导致结果不等价的情况
+	 * @throws Exception
+	 */
+	protected void onArrayChildPageBatch() throws Exception {
+		SQLConfig config = sqlConfig;
+		if (isTable == false || isSubquery || config == null || arrayConfig == null || config.isExplain() || config.getCount() <= 0
+				|| arrayConfig.getQuery() != JSONRequest.QUERY_TABLE || RequestMethod.isGetMethod(method, true) == false
+				|| parentPath == null || parentPath.endsWith("[]/0") == false) {
+			return;
+		}
+
+		SQLExecutor executor = parser.getSQLExecutor();
+		if (executor instanceof AbstractSQLExecutor == false) {
+			return;
+		}
+
+		// [] / 0 / Comment[] / 0，只在父数组第 0 项执行
+		String childArrayPath = parentPath.substring(0, parentPath.length() - 2);
+		int index = childArrayPath.lastIndexOf("/");
+		String parentItemPath = index <= 0 ? null : childArrayPath.substring(0, index);
+		if (parentItemPath == null || parentItemPath.endsWith("[]/0") == false) {
+			return;
+		}
+
+		String parentArrayPath = parentItemPath.substring(0, parentItemPath.length() - 2);
+		List<JSONObject> mainList = parser.getArrayMainCache(parentArrayPath);
+		ObjectParser mainParser = parser.arrayObjectParserCacheMap.get(parentArrayPath);
+		String mainPath = mainParser == null ? null : mainParser.getPath();
+		if (mainList == null || mainList.size() <= 1 || mainPath == null || mainPath.startsWith(parentItemPath + "/") == false) {
+			return;
+		}
+
+		if (StringUtil.isEmpty(config.getCombine(), true) == false || config.getFrom() != null
+				|| (config.getHint() != null && config.getHint().isEmpty() == false)  // SQL Server 的 OPTION 等只能在最外层
+				|| StringUtil.isEmpty(config.getGroup(), true) == false || (config.getHaving() != null && config.getHaving().isEmpty() == false)
+				|| (config.getJoinList() != null && config.getJoinList().isEmpty() == false)
+				|| (functionMap != null && functionMap.isEmpty() == false)) {
+			return;
+		}
+
+		// 只允许一个 key@ 引用同一项内父数组主表的字段
+		String key = null;
+		String refKey = null;
+		for (Entry<String, Object> entry : request.entrySet()) {
+			String k = entry.getKey();
+			if (k == null || k.endsWith("()")) {
+				return;
+			}
+			if (k.endsWith("@") && k.startsWith("@") == false) {
+				if (key != null) {
+					return;
+				}
+
+				key = k.substring(0, k.length() - 1);
+				Object v = entry.getValue();
+				String targetPath = v instanceof String ? AbstractParser.getValuePath(parentPath, (String) v) : null;
+				if (StringUtil.isName(key) == false || targetPath == null || targetPath.startsWith(mainPath + "/") == false) {
+					return;
+				}
+				refKey = targetPath.substring(mainPath.length() + 1);
+			}
+		}
+		if (key == null || StringUtil.isName(refKey) == false || config.getWhere(key, true) == null) {
+			return;
+		}
+
+		List<String> column = config.getColumn();
+		if (column != null) {  // 需要用 key 分发查询结果
+			for (String c : column) {
+				if (StringUtil.isName(c) == false) {
+					return;
+				}
+			}
+			if (column.contains(key) == false) {
+				return;
+			}
+		}
+
+		Set<Object> valueSet = new LinkedHashSet<>();
+		for (JSONObject item : mainList) {
+			Object v = item == null ? null : item.get(refKey);
+			if (v != null) {
+				valueSet.add(v);
+			}
+		}
+		if (valueSet.size() <= 1) {
+			return;
+		}
+
+		((AbstractSQLExecutor) executor).executePartitionPage(config, key, new ArrayList<>(valueSet));
+	}
+
 	/**
 	 * response has the final value after parse (and query if isTable)
 	 */
@@ -972,10 +1244,26 @@ public abstract class AbstractObjectParser implements ObjectParser {
 		response = null;
 		sqlRequest = null;
 		sqlResponse = null;
+		sqlConfig = null;
 
 		functionMap = null;
 		customMap = null;
 		childMap = null;
+
+		// 复用前必须重置全部状态，避免串到下一个对象
+		joinList = null;
+		arrayTable = null;
+		rawKeyList = null;
+		name = null;
+		table = null;
+		alias = null;
+		path = null;
+		isReuse = false;
+		position = 0;
+		invalidate = false;
+		breakParse = false;
+		objectCount = 0;
+		arrayCount = 0;
 	}
 
 
@@ -7,23 +7,32 @@ package apijson.orm;
 
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.JSONWriter;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.regex.Pattern;
 
 import javax.activation.UnsupportedDataTypeException;
 import javax.management.MBeanServer;
@@ -109,6 +118,32 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 		return MAX_QUERY_DEPTH;
 	}
 
+	/**创建当前请求的结果预算，默认按 tag 和 @role 从 {@link ResultBudget#TAG_BUDGET_MAP}, {@link ResultBudget#ROLE_BUDGET_MAP} 取，
+	 * 返回 null 则不限制
+	 * @return
+	 */
+	protected ResultBudget createResultBudget() {
+		return ResultBudget.of(getTag(), getGlobalRole());
+	}
+
+	/**创建当前请求的开销预估，在执行任何 SQL 前按 {@link RequestCost#ROLE_MAX_COST_MAP} 等拒绝或排队，
+	 * 返回 null 则不预估，默认没有配置任何上限或排队时返回 null
+	 * @return
+	 */
+	protected RequestCost createRequestCost() {
+		return RequestCost.isEnabled() ? new RequestCost(this) : null;
+	}
+	/**获取开销预估用的角色，没传 @role 则按是否登录为 UNKNOWN 或 LOGIN
+	 * @return
+	 */
+	protected String getCostRole() {
+		String role = getGlobalRole();
+		if (role != null) {
+			return role;
+		}
+		return getVisitor().getId() == null ? AbstractVerifier.UNKNOWN : AbstractVerifier.LOGIN;
+	}
+
 
 	/**
 	 * method = null
@@ -347,6 +382,18 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 		}
 		return sqlExecutor;
 	}
+
+	protected boolean isSQLExecutorShared;
+	/**使用外部传入的 SQLExecutor，例如批量请求内共用同一个，parseResponse 时不会新建，结束时也不会关闭，由传入方关闭
+	 * @param sqlExecutor 为 null 则恢复每次 parseResponse 时新建
+	 * @return
+	 */
+	public AbstractParser<T> setSQLExecutor(SQLExecutor sqlExecutor) {
+		this.sqlExecutor = sqlExecutor;
+		this.isSQLExecutorShared = sqlExecutor != null;
+		return this;
+	}
+
 	@Override
 	public Verifier<T> getVerifier() {
 		if (verifier == null) {
@@ -395,6 +442,19 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 	private int queryDepth;
 	private long executedSQLDuration;
 
+	/**开始解析前出错，回滚并关闭提前创建的 SQLExecutor，共用的由传入方处理
+	 * @param e
+	 * @return
+	 */
+	protected JSONObject onParseBeforeError(Exception e) {
+		if (isSQLExecutorShared == false && sqlExecutor != null) {
+			onRollback();
+			sqlExecutor.close();
+			sqlExecutor = null;
+		}
+		return extendErrorResult(requestObject, e, requestMethod, getRequestURL(), isRoot);
+	}
+
 	/**解析请求json并获取对应结果
 	 * @param request
 	 * @return requestObject
@@ -402,14 +462,40 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 	@NotNull
 	@Override
 	public JSONObject parseResponse(JSONObject request) {
+		// 和访问者无关的公开请求，命中缓存则跳过全部流程
+		String cacheKey = getResponseCacheKey(request);
+		JSONObject cache = cacheKey == null ? null : ResponseCache.getResponse(cacheKey);
+		if (cache != null) {
+			Log.d(TAG, "parseResponse  ResponseCache.getResponse(cacheKey) != null >> return");
+			return cache;
+		}
+
+		return parseResponse(request, cacheKey, false);
+	}
+
+	/**解析请求json并获取对应结果
+	 * @param request
+	 * @param cacheKey {@link #getResponseCacheKey} 的结果，已查过缓存未命中
+	 * @param isFormatOnWrite 由调用方在写出时格式化，开启 format 时也不复制一份格式化后的 JSONResponse
+	 * @return requestObject
+	 */
+	@NotNull
+	private JSONObject parseResponse(JSONObject request, String cacheKey, boolean isFormatOnWrite) {
 		long startTime = System.currentTimeMillis();
-		Log.d(TAG, "parseResponse  startTime = " + startTime
+		Log.d(TAG, () -> "parseResponse  startTime = " + startTime
 				+ "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n\n\n ");
 
 		requestObject = request;
+		long cacheVersion = cacheKey == null ? 0 : ResponseCache.getVersion();
 
 		verifier = createVerifier().setVisitor(getVisitor());
 
+		// 在校验前创建，UNIQUE, EXIST 等校验复用请求的连接和事务，不用每个字段都新建连接
+		if (isSQLExecutorShared == false) {
+			sqlExecutor = createSQLExecutor();
+		}
+		onBegin();
+
 		if (RequestMethod.isPublicMethod(requestMethod) == false) {
 			try {
 				if (isNeedVerifyLogin()) {
@@ -419,7 +505,7 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 					onVerifyContent();
 				}
 			} catch (Exception e) {
-				return extendErrorResult(requestObject, e, requestMethod, getRequestURL(), isRoot);
+				return onParseBeforeError(e);
 			}
 		}
 
@@ -429,7 +515,7 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 				setGlobalRole(requestObject.getString(JSONRequest.KEY_ROLE));
 				requestObject.remove(JSONRequest.KEY_ROLE);
 			} catch (Exception e) {
-				return extendErrorResult(requestObject, e, requestMethod, getRequestURL(), isRoot);
+				return onParseBeforeError(e);
 			}
 		}
 
@@ -448,18 +534,37 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 			requestObject.remove(JSONRequest.KEY_EXPLAIN);
 			requestObject.remove(JSONRequest.KEY_CACHE);
 		} catch (Exception e) {
-			return extendErrorResult(requestObject, e, requestMethod, getRequestURL(), isRoot);
+			return onParseBeforeError(e);
+		}
+
+		if (responseWriter != null) {  // 边解析边输出，写出前还不知道是否成功
+			responseWriter.setFormat(globalFormat != null && globalFormat);
+		}
+
+		// 预算按 @role 取，必须在 setGlobalRole 后设置，共用的由传入方设置
+		if (isSQLExecutorShared == false) {
+			sqlExecutor.setResultBudget(createResultBudget());
 		}
 
-		final String requestString = JSON.toJSONString(request);//request传进去解析后已经变了
+		// request 传进去解析后已经变了，要打印的提前序列化；不打印的只记下结构快照，出错时才序列化
+		final boolean isPrintRequest = IS_PRINT_REQUEST_STRING_LOG || Log.DEBUG;
+		final String requestString = isPrintRequest ? JSON.toJSONString(request) : null;
+		final Object requestSnapshot = isPrintRequest ? null : RequestSnapshot.of(request);
 
 
-		queryResultMap = new HashMap<String, Object>();
+		queryResultMap = new PathMap<Object>();
+		executedTableSet = new HashSet<>();
+		// 校验及去掉全局关键词后才是实际解析的结构
+		objectPlanMap = RequestPlan.bind(requestMethod, tag, version, requestObject);
 
+		RequestCost requestCost = createRequestCost();
 		Exception error = null;
-		sqlExecutor = createSQLExecutor();
-		onBegin();
 		try {
+			// 还没执行任何 SQL 前预估开销，超出上限直接拒绝，开销大的排队，在 try 内才能保证 finally 中释放排队许可
+			if (requestCost != null) {
+				requestCost.estimate(requestObject).admit(getCostRole());
+			}
+
 			queryDepth = 0;
 			executedSQLDuration = 0;
 
@@ -473,10 +578,25 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 
 			onRollback();
 		}
+		finally {
+			if (requestCost != null) {
+				requestCost.release();
+			}
+		}
 
 		requestObject = error == null ? extendSuccessResult(requestObject, isRoot) : extendErrorResult(requestObject, error, requestMethod, getRequestURL(), isRoot);
 
-		JSONObject res = (globalFormat != null && globalFormat) && JSONResponse.isSuccess(requestObject) ? new JSONResponse(requestObject) : requestObject;
+		JSONObject res = isFormatOnWrite == false && (globalFormat != null && globalFormat) && JSONResponse.isSuccess(requestObject) ? new JSONResponse(requestObject) : requestObject;
+
+		if (error == null) {
+			if (cacheKey != null && JSONResponse.isSuccess(res)) {
+				JSONObject cacheRes = isFormatOnWrite && (globalFormat != null && globalFormat) ? new JSONResponse(res) : res;
+				ResponseCache.put(cacheKey, cacheRes, executedTableSet, ResponseCache.getTtl(getResponseCacheTag(request)), cacheVersion);
+			}
+			else if (RequestMethod.isQueryMethod(requestMethod) == false) {  // 修改了数据，查过这些表的缓存都失效
+				ResponseCache.invalidate(executedTableSet);
+			}
+		}
 
 		long endTime = System.currentTimeMillis();
 		long duration = endTime - startTime;
@@ -502,9 +622,9 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 		onClose();
 
 		// CS304 Issue link: https://github.com/Tencent/APIJSON/issues/232
-		if (IS_PRINT_REQUEST_STRING_LOG || Log.DEBUG || error != null) {
+		if (isPrintRequest || error != null) {
 			Log.sl("\n\n\n", '<', "");
-			Log.fd(TAG, requestMethod + "/parseResponse  request = \n" + requestString + "\n\n");
+			Log.fd(TAG, requestMethod + "/parseResponse  request = \n" + (requestString != null ? requestString : JSON.toJSONString(RequestSnapshot.restore(requestSnapshot))) + "\n\n");
 		}
 		if (IS_PRINT_BIG_LOG || Log.DEBUG || error != null) {  // 日志仅存服务器，所以不太敏感，而且这些日志虽然量大但非常重要，对排查 bug 很关键
 			Log.fd(TAG, requestMethod + "/parseResponse return response = \n" + JSON.toJSONString(requestObject) + "\n\n");
@@ -516,6 +636,453 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 		return res;
 	}
 
+	/**请求中 JSONObject, JSONArray 结构的快照，值本身不复制，用于解析修改 request 后出错时仍能打印原始请求。
+	 * 对象按 key, value 交替存到一个数组，比复制一份 Map 或序列化为 String 分配的内存都少，出错时才还原并序列化
+	 */
+	private static final class RequestSnapshot {
+		private final Object[] items;
+		private final boolean isObject;
+
+		private RequestSnapshot(Object[] items, boolean isObject) {
+			this.items = items;
+			this.isObject = isObject;
+		}
+
+		static Object of(Object value) {
+			if (value instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) value;
+				Object[] items = new Object[2*map.size()];
+				int i = 0;
+				for (Entry<?, ?> entry : map.entrySet()) {
+					if (i >= items.length) {
+						break;
+					}
+					items[i++] = entry.getKey();
+					items[i++] = of(entry.getValue());
+				}
+				return new RequestSnapshot(items, true);
+			}
+			if (value instanceof List) {
+				List<?> list = (List<?>) value;
+				Object[] items = new Object[list.size()];
+				for (int i = 0; i < items.length; i++) {
+					items[i] = of(list.get(i));
+				}
+				return new RequestSnapshot(items, false);
+			}
+			return value;
+		}
+
+		static Object restore(Object value) {
+			if (value instanceof RequestSnapshot == false) {
+				return value;
+			}
+
+			Object[] items = ((RequestSnapshot) value).items;
+			if (((RequestSnapshot) value).isObject) {
+				JSONObject obj = new JSONObject(items.length/2, true);
+				for (int i = 0; i + 1 < items.length; i += 2) {
+					if (items[i] != null) {
+						obj.put(String.valueOf(items[i]), restore(items[i + 1]));
+					}
+				}
+				return obj;
+			}
+
+			JSONArray arr = new JSONArray(items.length);
+			for (Object item : items) {
+				arr.add(restore(item));
+			}
+			return arr;
+		}
+	}
+
+	/**
+	 * 边解析边输出的写入器，只在 {@link #parseResponse(JSONObject, OutputStream)} 解析期间不为 null
+	 */
+	private ResponseWriter responseWriter;
+	/**
+	 * 边解析边输出时，请求中有引用数组某一项的路径，例如 /[]/0/User/id，数组项写出后不能移除路径结果
+	 */
+	private boolean isStreamItemPathKept;
+
+	/**解析请求并把响应直接写到输出流，不生成整个响应的 String，开启 format 时也不复制一份格式化后的 JSONResponse，而是在写出每个 key 时再格式化。
+	 * 不缓存的查询请求边解析边输出：根对象下的 key:{} 解析完就写出，key[]:{} 每解析完一项就写出这一项，写出后不再留在 response 中，
+	 * 数组项的路径结果也会移除，所以内存只和单个对象或数组项的大小有关，而不是整个响应。
+	 * 以下情况仍然先完整解析再写出：要读写 {@link ResponseCache} 的，修改数据的(失败要回滚，不能先输出)，根对象下有 key() 函数的(可能用到前面的结果)。
+	 * 边解析边输出时 key 的顺序可能和 {@link #parseResponse(JSONObject)} 不同，中途出错则已写出的部分保留，之后追加 code, msg 等错误信息。
+	 * SQLExecutor 的 SQL 结果缓存及数组主表的查询结果仍然要保留到请求结束
+	 * @param request
+	 * @param out 按 UTF-8 编码写入，只 flush 不 close，由调用方关闭
+	 * @throws IOException
+	 */
+	public void parseResponse(JSONObject request, @NotNull OutputStream out) throws IOException {
+		String cacheKey = getResponseCacheKey(request);
+		byte[] cache = cacheKey == null ? null : ResponseCache.get(cacheKey);
+		if (cache != null) {  // 已经序列化好，直接输出
+			out.write(cache);
+			out.flush();
+			return;
+		}
+
+		ResponseWriter writer = new ResponseWriter(out);
+		if (cacheKey != null || RequestMethod.isQueryMethod(requestMethod) == false || isStreamable(request) == false) {
+			JSONObject res = parseResponse(request, cacheKey, true);
+			writer.setFormat((globalFormat != null && globalFormat) && JSONResponse.isSuccess(res));
+			writer.end(res);
+			return;
+		}
+
+		responseWriter = writer;
+		isStreamItemPathKept = hasItemReference(request);
+		JSONObject res;
+		try {
+			res = parseResponse(request, null, true);
+		}
+		finally {
+			responseWriter = null;
+			isStreamItemPathKept = false;
+		}
+		writer.end(res);
+	}
+
+	/**根对象下有 key() 函数时不能边解析边输出，函数可能用到前面已写出的结果
+	 * @param request
+	 * @return
+	 */
+	private static boolean isStreamable(JSONObject request) {
+		if (request == null) {
+			return false;
+		}
+		for (String key : request.keySet()) {
+			if (key != null && key.endsWith("()")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static final Pattern PATTERN_ITEM_REFERENCE = Pattern.compile("\\[\\]/\\d");
+
+	/**请求中是否有 key@ 引用了数组中某一项的路径，例如 "userId@":"/[]/0/User/id"
+	 * @param request
+	 * @return
+	 */
+	private static boolean hasItemReference(JSONObject request) {
+		for (Entry<String, Object> entry : request.entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof JSONObject) {
+				if (hasItemReference((JSONObject) value)) {
+					return true;
+				}
+			}
+			else if (value instanceof String && entry.getKey() != null && entry.getKey().endsWith("@")
+					&& PATTERN_ITEM_REFERENCE.matcher((String) value).find()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**边解析边输出时，直接写出根对象下解析完的 key:{}，不再留在 response 中
+	 * @param parentPath
+	 * @param key
+	 * @param child
+	 * @return 已写出则返回 true，不用再 put 到 response
+	 */
+	public boolean onStreamChild(String parentPath, String key, Object child) {
+		ResponseWriter writer = responseWriter;
+		if (writer == null || key == null || StringUtil.isEmpty(parentPath) == false) {
+			return false;
+		}
+		if (writer.isWritten(key)) {  // 数组已逐项写出
+			return true;
+		}
+		if (child == null) {
+			return false;
+		}
+
+		writer.writeEntry(key, child);
+		return true;
+	}
+
+	/**把响应按 JSON 写到输出流，根对象在第一次写出时才开始，已写出的 key 在结束时跳过
+	 */
+	private class ResponseWriter {
+		private final JSONWriter writer;
+		private final Set<String> writtenKeySet = new HashSet<>();
+		private boolean format;
+		private boolean isStarted;
+		private String arrayKey;
+
+		ResponseWriter(@NotNull OutputStream out) {
+			writer = new JSONWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+		}
+
+		void setFormat(boolean format) {
+			this.format = format;
+		}
+
+		boolean isWritten(String key) {
+			return writtenKeySet.contains(key);
+		}
+
+		private void start() {
+			if (isStarted == false) {
+				isStarted = true;
+				writer.startObject();
+			}
+		}
+
+		void writeEntry(@NotNull String key, @NotNull Object value) {
+			start();
+			writtenKeySet.add(key);
+			writeResponseEntry(writer, key, value, format);
+		}
+
+		/**写出数组 key[] 中的一项，第一项前写出 key 并开始数组
+		 */
+		void writeItem(@NotNull String key, Object item) {
+			if (arrayKey == null) {
+				start();
+				arrayKey = key;
+				writtenKeySet.add(key);
+				writer.writeKey(format ? JSONResponse.formatArrayKey(key) : key);
+				writer.startArray();
+			}
+			writeResponseValue(writer, item, format);
+		}
+
+		void endArray() {
+			if (arrayKey != null) {
+				arrayKey = null;
+				writer.endArray();
+			}
+		}
+
+		/**写出 response 中还没写出的 key 并结束
+		 */
+		void end(@NotNull JSONObject response) throws IOException {
+			endArray();
+			start();
+			for (Entry<String, Object> entry : response.entrySet()) {
+				String key = entry.getKey();
+				if (entry.getValue() != null && writtenKeySet.contains(key) == false) {
+					writeResponseEntry(writer, key, entry.getValue(), format);
+				}
+			}
+			writer.endObject();
+			writer.flush();
+		}
+	}
+
+	protected void writeResponseEntry(@NotNull JSONWriter writer, String key, Object value, boolean format) {
+		if (format && key != null) {
+			if (value instanceof Collection) {
+				key = JSONResponse.formatArrayKey(key);
+			}
+			else if (value instanceof Map) {
+				key = JSONResponse.formatObjectKey(key);
+			}
+			else {
+				key = JSONResponse.formatOtherKey(key);
+			}
+		}
+
+		writer.writeKey(key);
+		writeResponseValue(writer, value, format);
+	}
+
+	protected void writeResponseValue(@NotNull JSONWriter writer, Object value, boolean format) {
+		if (value instanceof Map) {
+			writer.startObject();
+			for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (entry.getValue() != null) {  // 和 JSON.toJSONString 一样不输出 null 值
+					writeResponseEntry(writer, entry.getKey() == null ? null : entry.getKey().toString(), entry.getValue(), format);
+				}
+			}
+			writer.endObject();
+		}
+		else if (value instanceof Collection) {
+			writer.startArray();
+			for (Object item : (Collection<?>) value) {
+				writeResponseValue(writer, item, format);
+			}
+			writer.endArray();
+		}
+		else {
+			writer.writeValue(value);
+		}
+	}
+
+	/**
+	 * 批量请求中每个请求的方法，不传则为 GET
+	 */
+	public static final String KEY_METHOD = "@method";
+	/**
+	 * 批量请求的最大数量
+	 */
+	public static int MAX_BATCH_COUNT = 20;
+
+	/**批量请求，客户端打开一个页面时经常同时发出多个请求，合并为一个请求后：
+	 * 共用同一个 SQLExecutor，即同一个数据库连接以及 SQL 结果缓存，不同请求间完全相同的 SQL 只会执行一次，例如都要查当前 User；
+	 * 共用同一个 Visitor，但每个请求仍然按各自的 method, tag, @role 分别校验；
+	 * 预算及 MAX_SQL_COUNT 按整个批量请求累计，预算取全部请求的 tag, @role 对应预算中最严格的。
+	 * 按顺序逐个执行，修改数据的请求执行后会换新的 SQLExecutor，避免之后的请求查到修改前的缓存。
+	 * 不会修改传入的 requestList 及其中每个请求的第一层 key
+	 * @param requestList [{ "@method":"GET", "User":{ "id":82001 } }, { "@method":"POST", "tag":"Moment", "Moment":{...} }]
+	 * @return { "code":200, "msg":"success", "response":[ 每个请求的响应，某个请求出错也不影响其它请求 ] }
+	 */
+	public JSONObject parseBatchResponse(JSONArray requestList) {
+		int size = requestList == null ? 0 : requestList.size();
+		if (size <= 0 || size > MAX_BATCH_COUNT) {
+			return newErrorResult(new IllegalArgumentException("批量请求 [] 中请求的数量必须在 1-" + MAX_BATCH_COUNT + " 内 !"));
+		}
+
+		// 批量请求本身没有 tag, @role，按每个请求单独执行时的预算取最严格的
+		ResultBudget budget = null;
+		for (int i = 0; i < size; i++) {
+			Object item = requestList.get(i);
+			if (item instanceof JSONObject) {
+				JSONObject request = (JSONObject) item;
+				budget = ResultBudget.min(budget, ResultBudget.of(request.getString(JSONRequest.KEY_TAG), request.getString(JSONRequest.KEY_ROLE)));
+			}
+		}
+
+		JSONArray responseList = new JSONArray(size);
+		SQLExecutor executor = null;
+		try {
+			for (int i = 0; i < size; i++) {
+				RequestMethod method = null;
+				try {
+					JSONObject item = requestList.getJSONObject(i);
+					if (item == null) {
+						throw new IllegalArgumentException("批量请求 [] 中第 " + i + " 项不能为 null !");
+					}
+
+					// 解析会去掉 @method, @role, format 等第一层的 key，复制一份，不修改传入的请求
+					JSONObject request = new JSONObject(item.size(), true);
+					request.putAll(item);
+
+					String m = request.getString(KEY_METHOD);
+					request.remove(KEY_METHOD);
+					method = StringUtil.isEmpty(m, true) ? GET : RequestMethod.valueOf(m.toUpperCase());
+
+					if (executor == null) {
+						executor = createSQLExecutor();
+						executor.setResultBudget(budget);
+					}
+
+					@SuppressWarnings("unchecked")
+					AbstractParser<T> parser = (AbstractParser<T>) createParser();
+					parser.setMethod(method);
+					parser.setVisitor(getVisitor());
+					parser.setNeedVerifyLogin(isNeedVerifyLogin());
+					parser.setNeedVerifyRole(isNeedVerifyRole());
+					parser.setNeedVerifyContent(isNeedVerifyContent());
+					parser.setRequestURL(getRequestURL());
+					parser.setSQLExecutor(executor);
+
+					responseList.add(parser.parseResponse(request));
+				}
+				catch (Exception e) {
+					responseList.add(newErrorResult(e));
+				}
+
+				if (executor != null && method != null && RequestMethod.isQueryMethod(method) == false) {
+					executor.close();
+					executor = null;
+				}
+			}
+		}
+		finally {
+			if (executor != null) {
+				executor.close();
+			}
+		}
+
+		JSONObject result = newSuccessResult();
+		result.put("response", responseList);
+		return result;
+	}
+
+	/**
+	 * 当前请求执行过 SQL 的表，用于 {@link ResponseCache} 保存时关联及修改后失效
+	 */
+	protected Set<String> executedTableSet;
+
+	/**
+	 * 当前请求中每个对象的解析计划，见 {@link RequestPlan}
+	 */
+	protected Map<JSONObject, ObjectPlan> objectPlanMap;
+
+	/**获取对象的解析计划
+	 * @param request
+	 * @return 不在计划内(解析中途生成的对象等)或不缓存则返回 null
+	 */
+	public ObjectPlan getObjectPlan(JSONObject request) {
+		return objectPlanMap == null || request == null ? null : objectPlanMap.get(request);
+	}
+
+	protected String getResponseCacheTag(JSONObject request) {
+		return tag != null || request == null ? tag : request.getString(JSONRequest.KEY_TAG);
+	}
+
+	/**获取 {@link ResponseCache} 的 key，只有 GET, HEAD 这种公开请求并且 tag 配置了有效时长，
+	 * 而且请求中所有 @role 都在 {@link ResponseCache#ROLE_SET} 中才缓存，
+	 * 因为命中缓存会跳过登录及角色校验，其它角色的响应被缓存后会被没有权限的访问者拿到。
+	 * Log.DEBUG 时不缓存，每次都要输出实际的 SQL 数量、耗时 等调试信息
+	 * @param request 还没被解析修改过的原始请求
+	 * @return 不缓存则返回 null
+	 */
+	protected String getResponseCacheKey(JSONObject request) {
+		if (Log.DEBUG || request == null || RequestMethod.isPublicMethod(requestMethod) == false || ResponseCache.MAX_CACHE_COUNT <= 0) {
+			return null;
+		}
+
+		String t = getResponseCacheTag(request);
+		if (ResponseCache.getTtl(t) <= 0 || isCacheRole(request) == false) {
+			return null;
+		}
+
+		String role = globalRole != null ? globalRole : request.getString(JSONRequest.KEY_ROLE);
+		if (role == null) {
+			role = getVisitor().getId() == null ? AbstractVerifier.UNKNOWN : AbstractVerifier.LOGIN;
+		}
+		if (isCacheRole(role) == false) {
+			return null;
+		}
+
+		return ResponseCache.getKey(requestMethod, t, role, request);
+	}
+
+	private static boolean isCacheRole(Object role) {
+		Set<String> set = ResponseCache.ROLE_SET;
+		return set != null && role instanceof String && set.contains(role);
+	}
+	/**请求中每一层传的 @role 都要可以缓存
+	 */
+	private static boolean isCacheRole(JSONObject request) {
+		for (Entry<String, Object> entry : request.entrySet()) {
+			Object value = entry.getValue();
+			if (JSONRequest.KEY_ROLE.equals(entry.getKey())) {
+				if (isCacheRole(value) == false) {
+					return false;
+				}
+			}
+			else if (value instanceof JSONObject && isCacheRole((JSONObject) value) == false) {
+				return false;
+			}
+			else if (value instanceof JSONArray) {
+				for (Object item : (JSONArray) value) {
+					if (item instanceof JSONObject && isCacheRole((JSONObject) item) == false) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
 
 	@Override
 	public void onVerifyLogin() throws Exception {
@@ -532,9 +1099,7 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 	 */
 	@Override
 	public void onVerifyRole(@NotNull SQLConfig config) throws Exception {
-		if (Log.DEBUG) {
-			Log.i(TAG, "onVerifyRole  config = " + JSON.toJSONString(config));
-		}
+		Log.i(TAG, () -> "onVerifyRole  config = " + JSON.toJSONString(config));
 
 		if (isNeedVerifyRole()) {
 			if (config.getRole() == null) {
@@ -914,9 +1479,19 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 	 */
 	@Override
 	public JSONObject getStructure(@NotNull String table, String method, String tag, int version) throws Exception  {
+		String structureKey = StructureCache.getKey(table, method, tag, version);
+		StructureCache.Item item = StructureCache.get(structureKey);
+		if (item != null) {  // 查不到的也缓存了一段时间，避免恶意请求每次都查数据库
+			return item.getStructure();
+		}
+
+		// 必须在读取 REQUEST_MAP 前获取，读到旧 REQUEST_MAP 时不会在清空后又放回去
+		long generation = StructureCache.getGeneration();
+
 		// TODO 目前只使用 Request 而不使用 Response，所以这里写死用 REQUEST_MAP，以后可能 Response 表也会与 Request 表合并，用字段来区分
+		Map<String, SortedMap<Integer, JSONObject>> requestMap = AbstractVerifier.REQUEST_MAP;
 		String cacheKey = AbstractVerifier.getCacheKeyForRequest(method, tag);
-		SortedMap<Integer, JSONObject> versionedMap = AbstractVerifier.REQUEST_MAP.get(cacheKey);
+		SortedMap<Integer, JSONObject> versionedMap = requestMap.get(cacheKey);
 
 		JSONObject result = versionedMap == null ? null : versionedMap.get(Integer.valueOf(version));
 		if (result == null) {  // version <= 0 时使用最新，version > 0 时使用 > version 的最接近版本（最小版本）
@@ -944,21 +1519,12 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 
 				result = maxEntry == null ? null : maxEntry.getValue();
 			}
-
-			if (result != null) {  // 加快下次查询，查到值的话组合情况其实是有限的，不属于恶意请求
-				if (versionedMap == null) {
-					versionedMap = new TreeMap<>((o1, o2) -> {
-						return o2 == null ? -1 : o2.compareTo(o1);  // 降序
-					});
-				}
-
-				versionedMap.put(Integer.valueOf(version), result);
-				AbstractVerifier.REQUEST_MAP.put(cacheKey, versionedMap);
-			}
+			// 不再写回 REQUEST_MAP，并发请求同时修改共享的 TreeMap 不安全，加快下次查询改由 StructureCache 实现
 		}
 
 		if (result == null) {
-			if (Log.DEBUG == false && AbstractVerifier.REQUEST_MAP.isEmpty() == false) {
+			if (Log.DEBUG == false && requestMap.isEmpty() == false) {
+				StructureCache.put(structureKey, null, generation);
 				return null;  // 已使用 REQUEST_MAP 缓存全部，但没查到
 			}
 
@@ -981,18 +1547,95 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 			//too many connections error: 不try-catch，可以让客户端看到是服务器内部异常
 			result = getSQLExecutor().execute(config, false);
 
-			// version, method, tag 组合情况太多了，JDK 里又没有 LRUCache，所以要么启动时一次性缓存全部后面只用缓存，要么每次都查数据库
-			//			versionedMap.put(Integer.valueOf(version), result);
-			//			AbstractVerifier.REQUEST_MAP.put(cacheKey, versionedMap);
+			if (Log.DEBUG) {  // 调试时可能随时修改 Request 表，不缓存
+				return getJSONObject(result, "structure");
+			}
 		}
 
-		return getJSONObject(result, "structure"); //解决返回值套了一层 "structure":{}
+		JSONObject structure = getJSONObject(result, "structure"); //解决返回值套了一层 "structure":{}
+		StructureCache.put(structureKey, structure, generation);
+		return structure;
+	}
+
+	/**启动时一次性查出全部 Request 并缓存，之后非开放请求都不会在请求过程中查 Request 表
+	 * @param table Request 表名
+	 * @throws Exception
+	 */
+	public void preloadStructure(@NotNull String table) throws Exception {
+		SQLConfig config = createSQLConfig().setMethod(GET).setTable(table);
+		config.setPrepared(false);
+		config.setColumn(Arrays.asList("method", JSONRequest.KEY_TAG, JSONRequest.KEY_VERSION, "structure"));
+		config.setOrder(JSONRequest.KEY_VERSION + "-");
+		config.setCount(0);
+
+		try {
+			JSONObject result = getSQLExecutor().execute(config, false);
+			@SuppressWarnings("unchecked")
+			List<JSONObject> list = result == null ? null : (List<JSONObject>) result.remove(AbstractSQLExecutor.KEY_RAW_LIST);
+			if (list == null) {
+				list = new ArrayList<>();
+				if (result != null && result.isEmpty() == false) {
+					list.add(result);
+				}
+			}
+
+			StructureCache.preload(list);
+		}
+		finally {
+			if (isSQLExecutorShared == false && sqlExecutor != null) {  // 关闭后不能留着，否则之后 parseResponse 等会用到已关闭的
+				sqlExecutor.close();
+				sqlExecutor = null;
+			}
+		}
 	}
 
 
 
 	protected Map<String, ObjectParser> arrayObjectParserCacheMap = new HashMap<>();
 
+	/**
+	 * 每个请求内回收复用的 ObjectParser 最大数量，数组内每一项都会解析一遍内部对象，复用可以减少大量 ObjectParser 及其内部 Map 的创建，<= 0 则不复用。
+	 * 默认不复用，需要时手动开启。复用时不经过 {@link #createObjectParser}，而是调用 {@link AbstractObjectParser#init} 重新初始化，
+	 * 所以只有 createObjectParser 对任何参数都返回同一个子类，且子类额外的状态都在 recycle 中重置时才能开启
+	 */
+	public static int MAX_OBJECT_PARSER_POOL_SIZE = 0;
+
+	protected List<AbstractObjectParser> objectParserPool;
+
+	/**优先从回收的 ObjectParser 中取出并重新初始化，没有才调用 {@link #createObjectParser}
+	 * @return
+	 * @throws Exception
+	 */
+	protected ObjectParser obtainObjectParser(JSONObject request, String parentPath, SQLConfig arrayConfig
+			, boolean isSubquery, boolean isTable, boolean isArrayMainTable) throws Exception {
+		int size = objectParserPool == null ? 0 : objectParserPool.size();
+		if (size <= 0) {
+			return createObjectParser(request, parentPath, arrayConfig, isSubquery, isTable, isArrayMainTable);
+		}
+
+		AbstractObjectParser op = objectParserPool.remove(size - 1);
+		op.init(request, parentPath, arrayConfig, isSubquery, isTable, isArrayMainTable);
+		op.setParser(this);
+		op.setMethod(requestMethod);
+		return op;
+	}
+
+	/**回收 ObjectParser，之后在同一个请求内复用
+	 * @param op
+	 */
+	protected void recycleObjectParser(ObjectParser op) {
+		op.recycle();
+
+		if (op instanceof AbstractObjectParser && MAX_OBJECT_PARSER_POOL_SIZE > 0) {
+			if (objectParserPool == null) {
+				objectParserPool = new ArrayList<>();
+			}
+			if (objectParserPool.size() < MAX_OBJECT_PARSER_POOL_SIZE) {
+				objectParserPool.add((AbstractObjectParser) op);
+			}
+		}
+	}
+
 	//	protected SQLConfig itemConfig;
 	/**获取单个对象，该对象处于parentObject内
    * @param request parentObject 的 value
@@ -1045,7 +1688,7 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 		}
 
 		if (op == null) {
-			op = createObjectParser(request, parentPath, arrayConfig, isSubquery, isTable, isArrayMainTable);
+			op = obtainObjectParser(request, parentPath, arrayConfig, isSubquery, isTable, isArrayMainTable);
 		}
 		op = op.parse(name, isReuse);
 
@@ -1148,9 +1791,9 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 					arrayObjectParserCacheMap.put(parentPath.substring(0, parentPath.lastIndexOf("[]") + 2), op);
 				}
 			}
-			//			else {
-			//				op.recycle();
-			//			}
+			else {  // 数组主表的会被后面的项复用，其它的都可以回收
+				recycleObjectParser(op);
+			}
 			op = null;
 		}
 
@@ -1230,7 +1873,7 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 		request.remove(JSONRequest.KEY_COUNT);
 		request.remove(JSONRequest.KEY_PAGE);
 		request.remove(JSONRequest.KEY_JOIN);
-		Log.d(TAG, "onArrayParse  query = " + query + "; count = " + count + "; page = " + page + "; join = " + join);
+		Log.d(TAG, () -> "onArrayParse  query = " + query + "; count = " + count + "; page = " + page + "; join = " + join);
 
 		if (request.isEmpty()) { // 如果条件成立，说明所有的 parentPath/name:request 中request都无效！！！ 后续都不执行，没必要还原数组关键词浪费性能
 			Log.e(TAG, "onArrayParse  request.isEmpty() >> return null;");
@@ -1273,39 +1916,72 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 
 			boolean isExtract = true;
 
-			//生成size个
-			for (int i = 0; i < (isSubquery ? 1 : size); i++) {
-				parent = onObjectParse(request, isSubquery ? parentPath : path, isSubquery ? name : "" + i, config.setType(SQLConfig.TYPE_ITEM).setPosition(i), isSubquery);
-				if (parent == null || parent.isEmpty()) {
-					break;
-				}
+			// 边解析边输出时根对象下的数组每解析完一项就写出，Table-key[] 这种提取字段的数组值很小，仍然整个放到 response
+			ResponseWriter writer = isSubquery || StringUtil.isEmpty(parentPath) == false
+					|| (childKeys != null && childKeys.length > 1) ? null : responseWriter;
+			int itemCount = 0;
 
-				long startTime = System.currentTimeMillis();
+			try {
+				//生成size个
+				for (int i = 0; i < (isSubquery ? 1 : size); i++) {
+					parent = onObjectParse(request, isSubquery ? parentPath : path, isSubquery ? name : "" + i, config.setType(SQLConfig.TYPE_ITEM).setPosition(i), isSubquery);
+					if (parent == null || parent.isEmpty()) {
+						break;
+					}
 
-				/* 这里优化了 Table[]: { Table:{} } 这种情况下的性能
-				 * 如果把 List<JSONObject> 改成 JSONArray 来减少以下 addAll 一次复制，则会导致 AbstractSQLExecutor 等其它很多地方 get 要改为 getJSONObject，
-				 * 修改类型会导致不兼容旧版依赖 ORM 的项目，而且整体上性能只有特殊情况下性能提升，其它非特殊情况下因为多出很多 instanceof JSONObject 的判断而降低了性能。
-				 */
-				JSONObject fo = i != 0 || arrTableKey == null ? null : parent.getJSONObject(arrTableKey);
-				@SuppressWarnings("unchecked")
-				List<JSONObject> list = fo == null ? null : (List<JSONObject>) fo.remove(AbstractSQLExecutor.KEY_RAW_LIST);
+					long startTime = System.currentTimeMillis();
 
-				if (list != null && list.isEmpty() == false) {
-					isExtract = false;
+					/* 这里优化了 Table[]: { Table:{} } 这种情况下的性能
+					 * 如果把 List<JSONObject> 改成 JSONArray 来减少以下 addAll 一次复制，则会导致 AbstractSQLExecutor 等其它很多地方 get 要改为 getJSONObject，
+					 * 修改类型会导致不兼容旧版依赖 ORM 的项目，而且整体上性能只有特殊情况下性能提升，其它非特殊情况下因为多出很多 instanceof JSONObject 的判断而降低了性能。
+					 */
+					JSONObject fo = i != 0 || arrTableKey == null ? null : parent.getJSONObject(arrTableKey);
+					@SuppressWarnings("unchecked")
+					List<JSONObject> list = fo == null ? null : (List<JSONObject>) fo.remove(AbstractSQLExecutor.KEY_RAW_LIST);
 
-					list.set(0, fo);  // 不知道为啥第 0 项也加了 @RAW@LIST
-					response.addAll(list);  // List<JSONObject> cannot match List<Object>   response = new JSONArray(list);
+					if (list != null && list.isEmpty() == false) {
+						isExtract = false;
 
-					long endTime = System.currentTimeMillis();  // 0ms
-					Log.d(TAG, "\n onArrayParse <<<<<<<<<<<<<<<<<<<<<<<<<<<<\n for (int i = 0; i < (isSubquery ? 1 : size); i++) "
-							+ " startTime = " + startTime + "; endTime = " + endTime + "; duration = " + (endTime - startTime) + "\n >>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n");
-					break;
-				}
+						list.set(0, fo);  // 不知道为啥第 0 项也加了 @RAW@LIST
+						if (writer != null) {
+							for (JSONObject item : list) {
+								writer.writeItem(name, item);
+							}
+						}
+						else {
+							response.addAll(list);  // List<JSONObject> cannot match List<Object>   response = new JSONArray(list);
+						}
+						itemCount += list.size();
 
-				//key[]:{Table:{}}中key equals Table时 提取Table
-				response.add(getValue(parent, childKeys)); //null有意义
+						long endTime = System.currentTimeMillis();  // 0ms
+						Log.d(TAG, "\n onArrayParse <<<<<<<<<<<<<<<<<<<<<<<<<<<<\n for (int i = 0; i < (isSubquery ? 1 : size); i++) "
+								+ " startTime = " + startTime + "; endTime = " + endTime + "; duration = " + (endTime - startTime) + "\n >>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n");
+						break;
+					}
+
+					//key[]:{Table:{}}中key equals Table时 提取Table
+					if (writer != null) {
+						writer.writeItem(name, getValue(parent, childKeys)); //null有意义
+						if (isStreamItemPathKept == false && queryResultMap instanceof PathMap) {  // 已写出，之后的项不会再用到
+							((PathMap<?>) queryResultMap).removeTree(path + "/" + i);
+						}
+					}
+					else {
+						response.add(getValue(parent, childKeys)); //null有意义
+					}
+					itemCount ++;
+				}
+			}
+			finally {
+				if (writer != null) {
+					writer.endArray();
+				}
 			}
 
+			ResultBudget budget = isSubquery ? null : getSQLExecutor().getResultBudget();
+			if (budget != null) {
+				budget.addItem(itemCount);
+			}
 			//Table>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
 
 
@@ -1733,7 +2409,9 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 	 * @return
 	 */
 	public static String getAbsPath(String path, String name) {
-		Log.i(TAG, "getPath  path = " + path + "; name = " + name + " <<<<<<<<<<<<<");
+		if (Log.DEBUG) {
+			Log.i(TAG, "getPath  path = " + path + "; name = " + name + " <<<<<<<<<<<<<");
+		}
 		path = StringUtil.getString(path);
 		name = StringUtil.getString(name);
 		if (StringUtil.isNotEmpty(path, false)) {
@@ -1746,7 +2424,9 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 		if (path.startsWith("/")) {
 			path = path.substring(1);
 		}
-		Log.i(TAG, "getPath  return " + path + " >>>>>>>>>>>>>>>>");
+		if (Log.DEBUG) {
+			Log.i(TAG, "getPath  return " + path + " >>>>>>>>>>>>>>>>");
+		}
 		return path;
 	}
 
@@ -1790,7 +2470,7 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 	 */
 	@Override
 	public void putQueryResult(String path, Object result) {
-		Log.i(TAG, "\n putQueryResult  valuePath = " + path + "; result = " + result + "\n <<<<<<<<<<<<<<<<<<<<<<<");
+		Log.i(TAG, () -> "\n putQueryResult  valuePath = " + path + "; result = " + result + "\n <<<<<<<<<<<<<<<<<<<<<<<");  // 不输出时不序列化 result
 		//		if (queryResultMap.containsKey(valuePath)) {//只保存被关联的value
 		Log.d(TAG, "putQueryResult  queryResultMap.containsKey(valuePath) >> queryResultMap.put(path, result);");
 		queryResultMap.put(path, result);
@@ -1804,7 +2484,7 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 	 */
 	@Override
 	public Object getValueByPath(String valuePath) {
-		Log.i(TAG, "<<<<<<<<<<<<<<< \n getValueByPath  valuePath = " + valuePath + "\n <<<<<<<<<<<<<<<<<<");
+		Log.i(TAG, () -> "<<<<<<<<<<<<<<< \n getValueByPath  valuePath = " + valuePath + "\n <<<<<<<<<<<<<<<<<<");
 		if (StringUtil.isEmpty(valuePath, true)) {
 			Log.e(TAG, "getValueByPath  StringUtil.isNotEmpty(valuePath, true) == false >> return null;");
 			return null;
@@ -1817,20 +2497,29 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 		//取出key被valuePath包含的result，再从里面获取key对应的value
 		JSONObject parent = null;
 		String[] keys = null;
-		for (Entry<String,Object> entry : queryResultMap.entrySet()){
-			String path = entry.getKey();
-			if (valuePath.startsWith(path + "/")) {
-				try {
-					parent = (JSONObject) entry.getValue();
-				} catch (Exception e) {
-					Log.e(TAG, "getValueByPath  try { parent = (JSONObject) queryResultMap.get(path); } catch { "
-							+ "\n parent not instanceof JSONObject!");
-					parent = null;
-				}
-				if (parent != null) {
-					keys = StringUtil.splitPath(valuePath.substring(path.length()));
+		String path = null;
+		if (queryResultMap instanceof PathMap) {  // 按路径片段查找最长父路径，不用遍历全部 key
+			path = ((PathMap<Object>) queryResultMap).getParentPath(valuePath);
+		}
+		else {
+			for (String p : queryResultMap.keySet()) {
+				if (valuePath.startsWith(p + "/")) {
+					path = p;
+					break;
 				}
-				break;
+			}
+		}
+
+		if (path != null) {
+			try {
+				parent = (JSONObject) queryResultMap.get(path);
+			} catch (Exception e) {
+				Log.e(TAG, "getValueByPath  try { parent = (JSONObject) queryResultMap.get(path); } catch { "
+						+ "\n parent not instanceof JSONObject!");
+				parent = null;
+			}
+			if (parent != null) {
+				keys = StringUtil.splitPath(valuePath.substring(path.length()));
 			}
 		}
 
@@ -1848,7 +2537,9 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 			Log.i(TAG, "getValueByPath >> get from queryResultMap >> return  parent.get(keys[keys.length - 1]);");
 			target = keys == null || keys.length <= 0 ? parent : parent.get(keys[keys.length - 1]); //值为null应该报错NotExistExeption，一般都是id关联，不可为null，否则可能绕过安全机制
 			if (target != null) {
-				Log.i(TAG, "getValueByPath >> getValue >> return target = " + target);
+				if (Log.DEBUG) {
+					Log.i(TAG, "getValueByPath >> getValue >> return target = " + target);
+				}
 				return target;
 			}
 		}
@@ -1857,7 +2548,9 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 		//从requestObject中取值
 		target = getValue(requestObject, StringUtil.splitPath(valuePath));
 		if (target != null) {
-			Log.i(TAG, "getValueByPath >> getValue >> return target = " + target);
+			if (Log.DEBUG) {
+				Log.i(TAG, "getValueByPath >> getValue >> return target = " + target);
+			}
 			return target;
 		}
 
@@ -1911,6 +2604,18 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 			return null;
 		}
 
+		if (executedTableSet != null) {
+			executedTableSet.add(config.getTable());
+			List<Join> joinList = config.getJoinList();
+			if (joinList != null) {
+				for (Join join : joinList) {
+					if (join != null && join.getTable() != null) {
+						executedTableSet.add(join.getTable());
+					}
+				}
+			}
+		}
+
 		if (isSubquery) {
 			JSONObject sqlObj = new JSONObject(true);
 			sqlObj.put(KEY_CONFIG, config);
@@ -1962,7 +2667,7 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 			if (config.getPosition() == 0 && config.limitSQLCount()) {
 				int maxSQLCount = getMaxSQLCount();
 				int sqlCount = getSQLExecutor().getExecutedSQLCount();
-				Log.d(TAG, "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<< \n\n\n 已执行 " + sqlCount + "/" + maxSQLCount + " 条 SQL \n\n\n >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>");
+				Log.d(TAG, () -> "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<< \n\n\n 已执行 " + sqlCount + "/" + maxSQLCount + " 条 SQL \n\n\n >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>");
 				if (sqlCount > maxSQLCount) {
 					throw new IllegalArgumentException("截至 " + config.getTable() + " 已执行 " + sqlCount + " 条 SQL，数量已超限，必须在 0-" + maxSQLCount + " 内 !");
 				}
@@ -2061,11 +2766,17 @@ public abstract class AbstractParser<T extends Object> implements Parser<T>, Par
 	protected void onClose() {
 		//		Log.d(TAG, "onClose >>");
 
-		close();
+		if (isSQLExecutorShared == false) {
+			close();
+		}
 		verifier = null;
 		sqlExecutor = null;
+		isSQLExecutorShared = false;
 		queryResultMap.clear();
 		queryResultMap = null;
+		objectParserPool = null;
+		executedTableSet = null;
+		objectPlanMap = null;
 	}
 
 }
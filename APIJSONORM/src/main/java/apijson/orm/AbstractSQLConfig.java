@@ -12,6 +12,7 @@ import com.alibaba.fastjson.annotation.JSONField;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -59,6 +60,7 @@ import static apijson.JSONObject.KEY_FROM;
 import static apijson.JSONObject.KEY_GROUP;
 import static apijson.JSONObject.KEY_HAVING;
 import static apijson.JSONObject.KEY_HAVING_AND;
+import static apijson.JSONObject.KEY_HINT;
 import static apijson.JSONObject.KEY_ID;
 import static apijson.JSONObject.KEY_JSON;
 import static apijson.JSONObject.KEY_NULL;
@@ -94,6 +96,12 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	 * 否则按 5.0+ 新版不允许，可以用 @having:"(toId)>0" 替代
 	 */
 	public static boolean IS_HAVING_ALLOW_NOT_FUNCTION = false;
+	/**
+	 * 为 true 则同一条 SQL 里结构完全相同的子查询只生成一次，提取到 WITH name AS (SELECT ...) 中复用，避免数据库重复计算；
+	 * 只对支持 WITH 公共表表达式的 MySQL 8+, MariaDB 10.2+, PostgreSQL, Oracle, 达梦, 人大金仓 生效。
+	 * 默认关闭，开启后生成的 SQL 会变化，需确认数据库对 WITH 的执行计划符合预期
+	 */
+	public static boolean ENABLE_WITH_AS = false;
 
 	public static int MAX_HAVING_COUNT = 5;
 	public static int MAX_WHERE_COUNT = 10;
@@ -109,23 +117,29 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	// * 和 / 不能同时出现，防止 /* */ 段注释！ # 和 -- 不能出现，防止行注释！ ; 不能出现，防止隔断SQL语句！空格不能出现，防止 CRUD,DROP,SHOW TABLES等语句！
 	private static Pattern PATTERN_RANGE;
 	private static Pattern PATTERN_FUNCTION;
+	private static Pattern PATTERN_HINT_ARG;
 
 	/**
 	 * 表名映射，隐藏真实表名，对安全要求很高的表可以这么做
 	 */
-	public static Map<String, String> TABLE_KEY_MAP;
+	public static volatile Map<String, String> TABLE_KEY_MAP;
 	public static List<String> CONFIG_TABLE_LIST;
 	public static List<String> DATABASE_LIST;
 
 	// 自定义原始 SQL 片段 Map<key, substring>：当 substring 为 null 时忽略；当 substring 为 "" 时整个 value 是 raw SQL；其它情况则只是 substring 这段为 raw SQL
-	public static Map<String, String> RAW_MAP;
+	public static volatile Map<String, String> RAW_MAP;
 	// 允许调用的 SQL 函数：当 substring 为 null 时忽略；当 substring 为 "" 时整个 value 是 raw SQL；其它情况则只是 substring 这段为 raw SQL
 	public static Map<String, String> SQL_AGGREGATE_FUNCTION_MAP;
-	public static Map<String, String> SQL_FUNCTION_MAP;
+	public static volatile Map<String, String> SQL_FUNCTION_MAP;
+	// 允许传的优化器提示 Map<hint, databases>：databases 为 "" 时所有支持提示的数据库都可用；其它情况则是用 , 分隔的 DATABASE_MYSQL 等数据库类型
+	public static Map<String, String> SQL_HINT_MAP;
+	// 分片路由 Map<Table, ShardRouter>：未配置的表不分片；请求中显式传了 @datasource 的不路由
+	public static Map<String, ShardRouter> SHARD_ROUTER_MAP;
 
 	static {  // 凡是 SQL 边界符、分隔符、注释符 都不允许，例如 ' " ` ( ) ; # -- /**/ ，以免拼接 SQL 时被注入意外可执行指令
 		PATTERN_RANGE = Pattern.compile("^[0-9%,!=\\<\\>/\\.\\+\\-\\*\\^]+$"); // ^[a-zA-Z0-9_*%!=<>(),"]+$ 导致 exists(select*from(Comment)) 通过！
 		PATTERN_FUNCTION = Pattern.compile("^[A-Za-z0-9%,:_@&~`!=\\<\\>\\|\\[\\]\\{\\} /\\.\\+\\-\\*\\^\\?\\(\\)\\$]+$"); //TODO 改成更好的正则，校验前面为单词，中间为操作符，后面为值
+		PATTERN_HINT_ARG = Pattern.compile("^[A-Za-z0-9_ ,\\.]*$"); // 不允许 * / 等，防止提前闭合 /*+ */ 注释
 
 		TABLE_KEY_MAP = new HashMap<String, String>();
 		TABLE_KEY_MAP.put(Table.class.getSimpleName(), Table.TABLE_NAME);
@@ -140,6 +154,8 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		TABLE_KEY_MAP.put(AllTableComment.class.getSimpleName(), AllTableComment.TABLE_NAME);
 		TABLE_KEY_MAP.put(AllColumnComment.class.getSimpleName(), AllColumnComment.TABLE_NAME);
 
+		SHARD_ROUTER_MAP = new HashMap<>();
+
 		CONFIG_TABLE_LIST = new ArrayList<>();  // Table, Column 等是系统表 AbstractVerifier.SYSTEM_ACCESS_MAP.keySet());
 		CONFIG_TABLE_LIST.add(Function.class.getSimpleName());
 		CONFIG_TABLE_LIST.add(Request.class.getSimpleName());
@@ -759,6 +775,92 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		SQL_FUNCTION_MAP.put("len", "");
 		SQL_FUNCTION_MAP.put("datalength", "");
 
+
+		SQL_HINT_MAP = new LinkedHashMap<>();  // 保证顺序，避免配置冲突等意外情况
+		String mysqls = DATABASE_MYSQL + "," + DATABASE_MARIADB + "," + DATABASE_TIDB;
+		String oracles = DATABASE_ORACLE + "," + DATABASE_DAMENG;
+
+		// MySQL 优化器提示 SELECT /*+ MAX_EXECUTION_TIME(1000) INDEX(t idx) */ ...
+		SQL_HINT_MAP.put("MAX_EXECUTION_TIME", mysqls);
+		SQL_HINT_MAP.put("INDEX", mysqls + "," + oracles);
+		SQL_HINT_MAP.put("NO_INDEX", mysqls + "," + oracles);
+		SQL_HINT_MAP.put("JOIN_INDEX", mysqls);
+		SQL_HINT_MAP.put("GROUP_INDEX", mysqls);
+		SQL_HINT_MAP.put("ORDER_INDEX", mysqls);
+		SQL_HINT_MAP.put("NO_ICP", mysqls);
+		SQL_HINT_MAP.put("NO_RANGE_OPTIMIZATION", mysqls);
+		SQL_HINT_MAP.put("MRR", mysqls);
+		SQL_HINT_MAP.put("NO_MRR", mysqls);
+		SQL_HINT_MAP.put("BKA", mysqls);
+		SQL_HINT_MAP.put("NO_BKA", mysqls);
+		SQL_HINT_MAP.put("HASH_JOIN", mysqls);
+		SQL_HINT_MAP.put("NO_HASH_JOIN", mysqls);
+		SQL_HINT_MAP.put("JOIN_ORDER", mysqls);
+		SQL_HINT_MAP.put("JOIN_PREFIX", mysqls);
+		SQL_HINT_MAP.put("JOIN_SUFFIX", mysqls);
+		SQL_HINT_MAP.put("JOIN_FIXED_ORDER", mysqls);
+		SQL_HINT_MAP.put("SEMIJOIN", mysqls);
+		SQL_HINT_MAP.put("NO_SEMIJOIN", mysqls);
+
+		// Oracle, 达梦 优化器提示 SELECT /*+ INDEX(t idx) FIRST_ROWS(10) */ ...
+		SQL_HINT_MAP.put("FULL", oracles);
+		SQL_HINT_MAP.put("INDEX_ASC", oracles);
+		SQL_HINT_MAP.put("INDEX_DESC", oracles);
+		SQL_HINT_MAP.put("FIRST_ROWS", oracles);
+		SQL_HINT_MAP.put("ALL_ROWS", oracles);
+		SQL_HINT_MAP.put("LEADING", oracles);
+		SQL_HINT_MAP.put("ORDERED", oracles);
+		SQL_HINT_MAP.put("USE_NL", oracles);
+		SQL_HINT_MAP.put("USE_HASH", oracles);
+		SQL_HINT_MAP.put("USE_MERGE", oracles);
+		SQL_HINT_MAP.put("PARALLEL", oracles);
+		SQL_HINT_MAP.put("NO_PARALLEL", oracles);
+
+		// PostgreSQL 的 pg_hint_plan 插件 /*+ IndexScan(t idx) */ SELECT ...
+		SQL_HINT_MAP.put("SeqScan", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("NoSeqScan", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("IndexScan", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("NoIndexScan", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("IndexOnlyScan", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("BitmapScan", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("NestLoop", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("NoNestLoop", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("HashJoin", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("NoHashJoin", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("MergeJoin", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("NoMergeJoin", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("Leading", DATABASE_POSTGRESQL);
+		SQL_HINT_MAP.put("Rows", DATABASE_POSTGRESQL);
+
+		// SQL Server 查询提示 SELECT ... OPTION(MAXDOP 1, RECOMPILE)
+		SQL_HINT_MAP.put("MAXDOP", DATABASE_SQLSERVER);
+		SQL_HINT_MAP.put("RECOMPILE", DATABASE_SQLSERVER);
+		SQL_HINT_MAP.put("FAST", DATABASE_SQLSERVER);
+		SQL_HINT_MAP.put("FORCE ORDER", DATABASE_SQLSERVER);
+		SQL_HINT_MAP.put("LOOP JOIN", DATABASE_SQLSERVER);
+		SQL_HINT_MAP.put("HASH JOIN", DATABASE_SQLSERVER);
+		SQL_HINT_MAP.put("MERGE JOIN", DATABASE_SQLSERVER);
+		SQL_HINT_MAP.put("OPTIMIZE FOR UNKNOWN", DATABASE_SQLSERVER);
+	}
+
+	/**整体替换 TABLE_KEY_MAP，运行时修改配置时用这个，不要修改正在被其它请求读取的 TABLE_KEY_MAP。
+	 * 生成不可修改的新 Map 后通过 volatile 引用一次性发布，读取的请求不用加锁，也不会读到只改了一半的配置
+	 * @param tableKeyMap
+	 */
+	public static void setTableKeyMap(@NotNull Map<String, String> tableKeyMap) {
+		TABLE_KEY_MAP = Collections.unmodifiableMap(new LinkedHashMap<>(tableKeyMap));
+	}
+	/**整体替换 RAW_MAP，见 {@link #setTableKeyMap}
+	 * @param rawMap
+	 */
+	public static void setRawMap(@NotNull Map<String, String> rawMap) {
+		RAW_MAP = Collections.unmodifiableMap(new LinkedHashMap<>(rawMap));
+	}
+	/**整体替换 SQL_FUNCTION_MAP，见 {@link #setTableKeyMap}
+	 * @param sqlFunctionMap
+	 */
+	public static void setSQLFunctionMap(@NotNull Map<String, String> sqlFunctionMap) {
+		SQL_FUNCTION_MAP = Collections.unmodifiableMap(new LinkedHashMap<>(sqlFunctionMap));
 	}
 
 	private int[] dbVersionNums = null;
@@ -804,6 +906,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	private String database; //表所在的数据库类型
 	private String schema; //表所在的数据库名
 	private String datasource; //数据源
+	private List<String> shardDatasourceList; //没有分片字段值时需要分散查询的全部分片数据源
 	private String table; //表名
 	private String alias; //表别名
 	private String group; //分组方式的字符串数组，','分隔
@@ -812,6 +915,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	private String order; //排序方式的字符串数组，','分隔
 	private List<String> raw; //需要保留原始 SQL 的字段，','分隔
 	private List<String> json; //需要转为 JSON 的字段，','分隔
+	private List<String> hint; //优化器提示，';'分隔
 	private Subquery from; //子查询临时表
 	private List<String> column; //表内字段名(或函数名，仅查询操作可用)的字符串数组，','分隔
 	private List<List<Object>> values; //对应表内字段的值的字符串数组，','分隔
@@ -885,6 +989,32 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	public boolean isMain() {
 		return main;
 	}
+
+	private boolean subquery;
+	/**是否作为子查询或 WITH 中的查询被拼接到外层 SQL 内，
+	 * 例如 SQL Server 的 OPTION(...) 等只能放在最外层语句的内容不能生成
+	 * @return
+	 */
+	public boolean isSubquery() {
+		return subquery;
+	}
+	public AbstractSQLConfig setSubquery(boolean subquery) {
+		this.subquery = subquery;
+		return this;
+	}
+
+	private boolean expandColumn = true;
+	/**没有 @column 时是否把 * 展开为 {@link ColumnCache} 中不隐藏的字段，
+	 * 子查询的外层可能用到隐藏字段，所以作为子查询时不展开
+	 * @return
+	 */
+	public boolean isExpandColumn() {
+		return expandColumn;
+	}
+	public AbstractSQLConfig setExpandColumn(boolean expandColumn) {
+		this.expandColumn = expandColumn;
+		return this;
+	}
 	@Override
 	public AbstractSQLConfig setMain(boolean main) {
 		this.main = main;
@@ -1154,6 +1284,16 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		return this;
 	}
 
+	@Override
+	public List<String> getShardDatasourceList() {
+		return shardDatasourceList;
+	}
+	@Override
+	public SQLConfig setShardDatasourceList(List<String> shardDatasourceList) {
+		this.shardDatasourceList = shardDatasourceList;
+		return this;
+	}
+
 	/**请求传进来的Table名
 	 * @return
 	 * @see {@link #getSQLTable()}
@@ -1623,6 +1763,69 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	}
 
 
+	@Override
+	public List<String> getHint() {
+		return hint;
+	}
+	@Override
+	public AbstractSQLConfig setHint(List<String> hint) {
+		this.hint = hint;
+		return this;
+	}
+	/**获取优化器提示，根据数据库类型生成不同格式：
+	 * MySQL, Oracle 等：/*+ MAX_EXECUTION_TIME(1000) INDEX(t idx) *&#47; ，PostgreSQL 的 pg_hint_plan 也是这种格式；
+	 * SQL Server：OPTION(MAXDOP 1, RECOMPILE)
+	 * @return 没有提示时返回 ""
+	 */
+	@JSONField(serialize = false)
+	public String getHintString() {
+		List<String> hints = getHint();
+		if (hints == null || hints.isEmpty()) {
+			return "";
+		}
+
+		boolean isSQLServer = isSQLServer();
+		if (isSQLServer == false && isMySQL() == false && isMariaDB() == false && isTiDB() == false
+				&& isOracle() == false && isDameng() == false && isPostgreSQL() == false) {
+			throw new UnsupportedOperationException("@hint:value 不合法！数据库 " + getSQLDatabase() + " 不支持优化器提示！");
+		}
+
+		String db = getSQLDatabase();
+		StringBuilder sb = new StringBuilder(isSQLServer ? "OPTION(" : "/*+ ");
+		for (int i = 0; i < hints.size(); i++) {
+			String h = hints.get(i);
+			int start = h.indexOf("(");
+			int end = start < 0 ? -1 : h.lastIndexOf(")");
+			if (start >= 0 && end != h.length() - 1) {
+				throw new IllegalArgumentException("@hint:value 中 " + h + " 不合法！必须为 hint 或 hint(arg0,arg1,...) 格式！");
+			}
+
+			String name = (start < 0 ? h : h.substring(0, start)).trim();
+			String dbs = SQL_HINT_MAP == null ? null : SQL_HINT_MAP.get(name);
+			if (dbs == null) {
+				throw new IllegalArgumentException("@hint:value 中 " + name + " 不合法！必须是后端 SQL_HINT_MAP 里配置的优化器提示！");
+			}
+			if (dbs.isEmpty() == false && Arrays.asList(StringUtil.split(dbs)).contains(db) == false) {
+				throw new IllegalArgumentException("@hint:value 中 " + name + " 不合法！数据库 " + db + " 不支持这个优化器提示，只有 [" + dbs + "] 支持！");
+			}
+
+			String args = start < 0 ? "" : h.substring(start + 1, end).trim();
+			if (PATTERN_HINT_ARG.matcher(args).matches() == false) {
+				throw new IllegalArgumentException("@hint:value 中 " + h + " 不合法！参数必须符合正则表达式 " + PATTERN_HINT_ARG + " ！");
+			}
+
+			if (isSQLServer) {  // OPTION(MAXDOP 1, FAST 10)
+				sb.append(i <= 0 ? "" : ", ").append(name).append(args.isEmpty() ? "" : " " + args);
+			}
+			else {
+				sb.append(i <= 0 ? "" : " ").append(name).append(start < 0 ? "" : "(" + args + ")");
+			}
+		}
+
+		return sb.append(isSQLServer ? ")" : " */").toString();
+	}
+
+
 	@Override
 	public Subquery getFrom() {
 		return from;
@@ -1792,6 +1995,17 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 				boolean noColumn = column != null && inSQLJoin;
 				String mc = isKeyPrefix() == false ? (noColumn ? "" : "*") : (noColumn ? "" : tableAlias + ".*");
 
+				if (column == null && inSQLJoin == false && isExpandColumn()) {  // 展开 * 并排除隐藏字段，见 ColumnCache
+					List<String> visibleList = ColumnCache.get(ColumnCache.getKey(this));
+					if (visibleList != null && visibleList.isEmpty() == false) {
+						StringBuilder sb = new StringBuilder();
+						for (String c : visibleList) {
+							sb.append(sb.length() <= 0 ? "" : ", ").append(getSQLKey(c));
+						}
+						mc = sb.toString();
+					}
+				}
+
 				return StringUtil.concat(mc, joinColumn, ", ", true);
 			}
 
@@ -2397,14 +2611,32 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		if (count <= 0 || RequestMethod.isHeadMethod(getMethod(), true)) {
 			return "";
 		}
+		boolean isOffsetFetch = isOffsetFetchSupported();
 		return getLimitString(
                 getPage()
                 , getCount()
-                , isOracle() || isSQLServer() || isDb2()
-                , isOracle() || isDameng() || isKingBase()
+                , isOffsetFetch || isOracle() || isSQLServer() || isDb2()
+                , isOffsetFetch == false && (isOracle() || isDameng() || isKingBase())
                 , isPresto() || isTrino()
         );
 	}
+	/**是否用 OFFSET n ROWS FETCH FIRST m ROWS ONLY 原生分页，而不是 ROWNUM 嵌套子查询。
+	 * Oracle 12c+, 达梦 DM7+, 人大金仓 KingBase V8+ 都支持，未获取到版本号时保守地用 ROWNUM
+	 * @return
+	 */
+	@JSONField(serialize = false)
+	public boolean isOffsetFetchSupported() {
+		if (isOracle()) {
+			return getDBVersionNums()[0] >= 12;
+		}
+		if (isDameng()) {
+			return getDBVersionNums()[0] >= 7;
+		}
+		if (isKingBase()) {
+			return getDBVersionNums()[0] >= 8;
+		}
+		return false;
+	}
 	/**获取限制数量及偏移量
 	* @param page
 	* @param count
@@ -2426,7 +2658,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 	public static String getLimitString(int page, int count, boolean isTSQL, boolean isOracle, boolean isPresto) {
 		int offset = getOffset(page, count);
 
-        if (isOracle) {  // TODO 判断版本，高版本可以用 OFFSET FETCH
+        if (isOracle) {  // 低版本 Oracle, 达梦, 人大金仓，高版本见 isOffsetFetchSupported 走 OFFSET FETCH
             return " WHERE ROWNUM BETWEEN " + offset + " AND " + (offset + count);
         }
 
@@ -2697,11 +2929,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 
 		String errPrefix = table + (isHaving ? ":{ @having:{ " : ":{ ") + "@combine:'" + combine + (isHaving ? "' } }" : "' }");
 		String s = StringUtil.getString(combine);
-		if (s.startsWith(" ") || s.endsWith(" ") ) {
-			throw new IllegalArgumentException(errPrefix + " 中字符 '" + s
-					+ "' 不合法！不允许首尾有空格，也不允许连续空格！空格不能多也不能少！"
-					+ "逻辑连接符 & | 左右必须各一个相邻空格！左括号 ( 右边和右括号 ) 左边都不允许有相邻空格！");
-		}
+		CombineExpression expr = CombineExpression.parse(s, errPrefix);  // 缓存了解析及语法校验结果，这里只需要遍历
 
 		if (conditionMap == null) {
 			conditionMap = new HashMap<>();
@@ -2721,10 +2949,9 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 			preparedValues = new ArrayList<>();
 		}
 
-		Map<String, Integer> usedKeyCountMap = new HashMap<>(size);
+		Map<String, Integer> usedKeyCountMap = expr.getKeyCountMap();
 
-		int n = s.length();
-		if (n > 0) {
+		if (expr.isEmpty() == false) {
 			if (isHaving == false) {  // 只收集表达式条件值
 				setPreparedValueList(new ArrayList<>());  // 必须反过来，否则 JOIN ON 内部 @combine 拼接后顺序错误
 			}
@@ -2734,185 +2961,70 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 			int maxCombineKeyCount = getMaxCombineKeyCount();
 			float maxCombineRatio = getMaxCombineRatio();
 
-			int depth = 0;
-			int allCount = 0;
-
-			int i = 0;
-
-			char lastLogic = 0;
-			char last = 0;
-			boolean first = true;
-			boolean isNot = false;
-
-			String key = "";
-			while (i <= n) {  // "date> | (contactIdList<> & (name*~ | tag&$))"
-				boolean isOver = i >= n;
-				char c = isOver ? 0 : s.charAt(i);
-				boolean isBlankOrRightParenthesis = c == ' ' || c == ')';
-				if (isOver || isBlankOrRightParenthesis) {
-					boolean isEmpty = StringUtil.isEmpty(key, true);
-					if (isEmpty && last != ')') {
-						throw new IllegalArgumentException(errPrefix + " 中字符 '" + (isOver ? s : s.substring(i))
-								+ "' 不合法！" + (c == ' ' ? "空格 ' ' " : "右括号 ')'") + " 左边缺少条件 key ！逻辑连接符 & | 左右必须各一个相邻空格！"
-								+ "空格不能多也不能少！不允许首尾有空格，也不允许连续空格！左括号 ( 的右边 和 右括号 ) 的左边 都不允许有相邻空格！");
-					}
-
-					if (isEmpty == false) {
-						if (first == false && lastLogic <= 0) {
-							throw new IllegalArgumentException(errPrefix + " 中字符 "
-									+ "'" + s.substring(i - key.length() - (isOver ? 1 : 0)) + "' 不合法！左边缺少 & | 其中一个逻辑连接符！");
-						}
-
-						allCount ++;
-						if (allCount > maxCombineCount && maxCombineCount > 0) {
-							throw new IllegalArgumentException(errPrefix + " 中字符 '" + s + "' 不合法！"
-									+ "其中 key 数量 " + allCount + " 已超过最大值，必须在条件键值对数量 0-" + maxCombineCount + " 内！");
-						}
-						if (1.0f*allCount/size > maxCombineRatio && maxCombineRatio > 0) {
-							throw new IllegalArgumentException(errPrefix + " 中字符 '" + s + "' 不合法！"
-									+ "其中 key 数量 " + allCount + " / 条件键值对数量 " + size + " = " + (1.0f*allCount/size)
-									+ " 已超过 最大倍数，必须在条件键值对数量 0-" + maxCombineRatio + " 倍内！");
-						}
-
-						String column = key;
-
-						Object value = conditionMap.get(column);
-						if (value == null) {
-							throw new IllegalArgumentException(errPrefix + " 中字符 '" + key
-									+ "' 对应的条件键值对 " + column + ":value 不存在！");
-						}
-
-						String wi = isHaving ? getHavingItem(quote, table, alias, column, (String) value, containRaw) : getWhereItem(column, value, method, verifyName);
-						if (StringUtil.isEmpty(wi, true)) {  // 转成 1=1 ?
-							throw new IllegalArgumentException(errPrefix + " 中字符 '" + key
-									+ "' 对应的 " + column + ":value 不是有效条件键值对！");
-						}
-
-						Integer count = usedKeyCountMap.get(column);
-						count = count == null ? 1 : count + 1;
-						if (count > maxCombineKeyCount && maxCombineKeyCount > 0) {
-							throw new IllegalArgumentException(errPrefix + " 中字符 '" + s + "' 不合法！"
-									+ "其中 '" + column + "' 重复引用，次数 " + count + " 已超过最大值，必须在 0-" + maxCombineKeyCount + " 内！");
-						}
-						usedKeyCountMap.put(column, count);
-
-						result += "( " + getCondition(isNot, wi) + " )";
-						isNot = false;
-						first = false;
-					}
-
-					key = "";
-					lastLogic = 0;
-
-					if (isOver) {
-						break;
-					}
-				}
-
-				if (c == ' ') {
-				}
-				else if (c == '&') {
-					if (last == ' ') {
-						if (i >= n - 1 || s.charAt(i + 1) != ' ') {
-							throw new IllegalArgumentException(errPrefix + " 中字符 '" + (i >= n - 1 ? s : s.substring(0, i + 1))
-									+ "' 不合法！逻辑连接符 & 右边缺少一个空格 ！逻辑连接符 & | 左右必须各一个相邻空格！空格不能多也不能少！"
-									+ "不允许首尾有空格，也不允许连续空格！左括号 ( 的右边 和 右括号 ) 的左边 都不允许有相邻空格！");
-						}
+			int depth = expr.getDepth();
+			if (depth > maxDepth && maxDepth > 0) {
+				throw new IllegalArgumentException(errPrefix + " 中字符 '" + s
+				+ "' 不合法！括号 (()) 嵌套层级 " + depth + " 已超过最大值，必须在 0-" + maxDepth + " 内！");
+			}
 
-						result += SQL.AND;
-						lastLogic = c;
-						i ++;
-					}
-					else {
-						key += c;
-					}
-				}
-				else if (c == '|') {
-					if (last == ' ') {
-						if (i >= n - 1 || s.charAt(i + 1) != ' ') {
-							throw new IllegalArgumentException(table + ":{ @combine: '" + combine + "' } 中字符 '" + (i >= n - 1 ? s : s.substring(0, i + 1))
-									+ "' 不合法！逻辑连接符 | 右边缺少一个空格 ！逻辑连接符 & | 左右必须各一个相邻空格！空格不能多也不能少！"
-									+ "不允许首尾有空格，也不允许连续空格！左括号 ( 右边和右括号 ) 左边都不允许有相邻空格！");
-						}
+			int allCount = expr.getKeyCount();
+			if (allCount > maxCombineCount && maxCombineCount > 0) {
+				throw new IllegalArgumentException(errPrefix + " 中字符 '" + s + "' 不合法！"
+						+ "其中 key 数量 " + allCount + " 已超过最大值，必须在条件键值对数量 0-" + maxCombineCount + " 内！");
+			}
+			if (1.0f*allCount/size > maxCombineRatio && maxCombineRatio > 0) {
+				throw new IllegalArgumentException(errPrefix + " 中字符 '" + s + "' 不合法！"
+						+ "其中 key 数量 " + allCount + " / 条件键值对数量 " + size + " = " + (1.0f*allCount/size)
+						+ " 已超过 最大倍数，必须在条件键值对数量 0-" + maxCombineRatio + " 倍内！");
+			}
 
-						result += SQL.OR;
-						lastLogic = c;
-						i ++;
-					}
-					else {
-						key += c;
+			if (maxCombineKeyCount > 0) {
+				for (Entry<String, Integer> entry : usedKeyCountMap.entrySet()) {
+					int count = entry.getValue();
+					if (count > maxCombineKeyCount) {
+						throw new IllegalArgumentException(errPrefix + " 中字符 '" + s + "' 不合法！"
+								+ "其中 '" + entry.getKey() + "' 重复引用，次数 " + count + " 已超过最大值，必须在 0-" + maxCombineKeyCount + " 内！");
 					}
 				}
-				else if (c == '!') {
-					last = i <= 0 ? 0 : s.charAt(i - 1);  // & | 后面跳过了空格
-
-					char next = i >= n - 1 ? 0 : s.charAt(i + 1);
-					if (last == ' ' || last == '(') {
-						if (next == ' ') {
-							throw new IllegalArgumentException(errPrefix + " 中字符 '" + s.substring(0, i + 1)
-							+ "' 不合法！非逻辑符 '!' 右边多了一个空格 ' ' ！非逻辑符 '!' 右边不允许任何相邻空格 ' '，也不允许 ')' '&' '|' 中任何一个！");
-						}
-						if (next == ')' || next == '&' || next == '!') {
-							throw new IllegalArgumentException(errPrefix + " 中字符 '" + s.substring(0, i + 1)
-							+ "' 不合法！非逻辑符 '!' 右边多了一个字符 '" + next + "' ！非逻辑符 '!' 右边不允许任何相邻空格 ' '，也不允许 ')' '&' '|' 中任何一个！");
-						}
-						if (i > 0 && lastLogic <= 0 && last != '(') {
-							throw new IllegalArgumentException(errPrefix + " 中字符 '" + s.substring(i)
-							+ "' 不合法！左边缺少 & | 逻辑连接符！逻辑连接符 & | 左右必须各一个相邻空格！空格不能多也不能少！"
-							+ "不允许首尾有空格，也不允许连续空格！左括号 ( 的右边 和 右括号 ) 的左边 都不允许有相邻空格！");
-						}
-					}
+			}
 
-					if (next == '(') {
-						result += SQL.NOT;
-						lastLogic = c;
-					}
-					else if (last <= 0 || last == ' ' || last == '(') {
-						isNot = true;
-						//					lastLogic = c;
-					}
-					else {
-						key += c;
-					}
-				}
-				else if (c == '(') {
-					if (key.isEmpty() == false || (i > 0 && lastLogic <= 0 && last != '(')) {
-						throw new IllegalArgumentException(errPrefix + " 中字符 '" + s.substring(i)
-						+ "' 不合法！左边缺少 & | 逻辑连接符！逻辑连接符 & | 左右必须各一个相邻空格！空格不能多也不能少！"
-						+ "不允许首尾有空格，也不允许连续空格！左括号 ( 的右边 和 右括号 ) 的左边 都不允许有相邻空格！");
-					}
+			for (CombineExpression.Item item : expr.getItemList()) {  // "date> | (contactIdList<> & (name*~ | tag&$))"
+				switch (item.getType()) {
+				case CombineExpression.TYPE_KEY:
+					String column = item.getKey();
 
-					depth ++;
-					if (depth > maxDepth && maxDepth > 0) {
-						throw new IllegalArgumentException(errPrefix + " 中字符 '" + s.substring(0, i + 1)
-						+ "' 不合法！括号 (()) 嵌套层级 " + depth + " 已超过最大值，必须在 0-" + maxDepth + " 内！");
+					Object value = conditionMap.get(column);
+					if (value == null) {
+						throw new IllegalArgumentException(errPrefix + " 中字符 '" + column
+								+ "' 对应的条件键值对 " + column + ":value 不存在！");
 					}
 
-					result += c;
-					lastLogic = 0;
-					first = true;
-				}
-				else if (c == ')') {
-					depth --;
-					if (depth < 0) {
-						throw new IllegalArgumentException(errPrefix + " 中字符 '" + s.substring(0, i + 1)
-						+ "' 不合法！左括号 ( 比 右括号 ) 少！数量必须相等从而完整闭合 (...) ！");
+					String wi = isHaving ? getHavingItem(quote, table, alias, column, (String) value, containRaw) : getWhereItem(column, value, method, verifyName);
+					if (StringUtil.isEmpty(wi, true)) {  // 转成 1=1 ?
+						throw new IllegalArgumentException(errPrefix + " 中字符 '" + column
+								+ "' 对应的 " + column + ":value 不是有效条件键值对！");
 					}
 
-					result += c;
-					lastLogic = 0;
-				}
-				else {
-					key += c;
+					result += "( " + getCondition(item.isNot(), wi) + " )";
+					break;
+				case CombineExpression.TYPE_AND:
+					result += SQL.AND;
+					break;
+				case CombineExpression.TYPE_OR:
+					result += SQL.OR;
+					break;
+				case CombineExpression.TYPE_NOT:
+					result += SQL.NOT;
+					break;
+				case CombineExpression.TYPE_LEFT:
+					result += "(";
+					break;
+				case CombineExpression.TYPE_RIGHT:
+					result += ")";
+					break;
+				default:
+					break;
 				}
-
-				last = c;
-				i ++;
-			}
-
-			if (depth != 0) {
-				throw new IllegalArgumentException(errPrefix + " 中字符 '" + s
-						+ "' 不合法！左括号 ( 比 右括号 ) 多！数量必须相等从而完整闭合 (...) ！");
 			}
 		}
 
@@ -3917,9 +4029,20 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 
 		String range = subquery.getRange();
 		SQLConfig cfg = subquery.getConfig();
+		verifyInlineShard(cfg, "子查询", true);
+		if (cfg instanceof AbstractSQLConfig) {
+			((AbstractSQLConfig) cfg).setSubquery(true).setExpandColumn(false);
+		}
+
+		WithAs withAs = activeWithAs;
+		String withAsName = withAs == null || withAs.nameMap == null ? null : withAs.nameMap.get(subquery);
+		if (withAsName != null) {  // 已提取到 WITH 中，预编译值也在 WITH 里
+			return (range  == null || range.isEmpty() ? "" : range) + "(SELECT * FROM " + withAsName + ") ";
+		}
 
-		cfg.setPreparedValueList(new ArrayList<>());
-		String sql = (range  == null || range.isEmpty() ? "" : range) + "(" + cfg.getSQL(isPrepared()) + ") ";
+		apijson.orm.Entry<String, List<Object>> cache = withAs == null ? null : withAs.sqlMap.get(subquery);
+		cfg.setPreparedValueList(cache == null ? new ArrayList<>() : new ArrayList<>(cache.getValue()));
+		String sql = (range  == null || range.isEmpty() ? "" : range) + "(" + (cache == null ? cfg.getSQL(isPrepared()) : cache.getKey()) + ") ";
 
 		//// SELECT .. FROM(SELECT ..) ..  WHERE .. 格式需要把子查询中的预编译值提前
 		//// 如果外查询 SELECT concat(`name`,?)  这种 SELECT 里也有预编译值，那就不能这样简单反向
@@ -4144,20 +4267,190 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 			}
 
 			config.setPreparedValueList(new ArrayList<Object>());
+			WithAs activeWithAs = config.getWithAs();  // 必须在 getColumnString, getConditionString 前，提前生成子查询
+			config.activeWithAs = activeWithAs;
+			String withAs = activeWithAs == null ? "" : activeWithAs.string;
 			String column = config.getColumnString();
+
+			// 优化器提示：MySQL, Oracle 等放 SELECT 后，PostgreSQL 的 pg_hint_plan 放语句最前，SQL Server 的 OPTION 放语句最后，
+			// 只对最外层语句生成，SQL Server 不允许子查询内有 OPTION
+			String hint = config.isMain() == false || config.isSubquery() ? "" : config.getHintString();
+			String headHint = hint.isEmpty() || config.isPostgreSQL() == false ? "" : hint + " ";
+			String selectHint = hint.isEmpty() || config.isPostgreSQL() || config.isSQLServer() ? "" : hint + " ";
+			String tailHint = hint.isEmpty() || config.isSQLServer() == false ? "" : " " + hint;
+
+			String sql = null;
 			if (config.isOracle() || config.isDameng() || config.isKingBase()) {
 				//When config's database is oracle,Using subquery since Oracle12 below does not support OFFSET FETCH paging syntax.
 				//针对oracle分组后条数的统计
 				if (StringUtil.isNotEmpty(config.getGroup(),true) && RequestMethod.isHeadMethod(config.getMethod(), true)){
-					return explain + "SELECT count(*) FROM (SELECT " + (config.getCache() == JSONRequest.CACHE_RAM ? "SQL_NO_CACHE " : "") + column + " FROM " + getConditionString(tablePath, config) + ") " + config.getLimitString();
+					sql = explain + withAs + "SELECT count(*) FROM (SELECT " + selectHint + (config.getCache() == JSONRequest.CACHE_RAM ? "SQL_NO_CACHE " : "") + column + " FROM " + getConditionString(tablePath, config) + ") " + config.getLimitString();
+				}
+				// Oracle 12c+, DM7+, KingBase V8+ 用原生 OFFSET FETCH，优化器才能用 top-N 提前终止，嵌套 ROWNUM 会阻碍这类优化
+				else if (config.isOffsetFetchSupported() == false) {
+					String pageSql = "SELECT " + selectHint + (config.getCache() == JSONRequest.CACHE_RAM ? "SQL_NO_CACHE " : "") + column + " FROM " + getConditionString(tablePath, config);
+					sql = explain + withAs + config.getOraclePageSql(pageSql);
+				}
+			}
+
+			if (sql == null) {
+				sql = headHint + explain + withAs + "SELECT " + selectHint + (config.getCache() == JSONRequest.CACHE_RAM ? "SQL_NO_CACHE " : "") + column + " FROM " + getConditionString(tablePath, config) + config.getLimitString() + tailHint;
+			}
+
+			// WITH 在最前面，其中子查询的预编译值也要放在最前面
+			List<Object> withAsPvl = activeWithAs == null ? null : activeWithAs.preparedValueList;
+			if (withAsPvl != null && withAsPvl.isEmpty() == false) {
+				List<Object> pvl = new ArrayList<>(withAsPvl);
+				pvl.addAll(config.getPreparedValueList());
+				config.setPreparedValueList(pvl);
+			}
+
+			// 只在生成本条 SQL 时用，避免之后单独调用 getWhereString 等时只引用 WITH 里的表名却没有 WITH
+			config.activeWithAs = null;
+
+			return sql;
+		}
+	}
+
+	/**提前生成的子查询，按 @from 及 where 中的 Subquery 实例缓存，子查询解析后不再变化，
+	 * 同一个 config 多次 getSQL 时不用重复生成
+	 */
+	private static class WithAs {
+		final List<Subquery> subqueryList;
+		final boolean prepared;
+		final Map<Subquery, apijson.orm.Entry<String, List<Object>>> sqlMap; // 子查询 -> SQL 及其预编译值
+		final Map<Subquery, String> nameMap; // 子查询 -> WITH 里的表名
+		final List<Object> preparedValueList;
+		final String string;
+
+		WithAs(List<Subquery> subqueryList, boolean prepared, Map<Subquery, apijson.orm.Entry<String, List<Object>>> sqlMap
+				, Map<Subquery, String> nameMap, List<Object> preparedValueList, String string) {
+			this.subqueryList = subqueryList;
+			this.prepared = prepared;
+			this.sqlMap = sqlMap;
+			this.nameMap = nameMap;
+			this.preparedValueList = preparedValueList;
+			this.string = string;
+		}
+	}
+
+	private WithAs withAs;
+	private WithAs activeWithAs;
+
+	/**是否把结构相同的子查询提取为 WITH 公共表表达式
+	 * @return
+	 * @see #ENABLE_WITH_AS
+	 */
+	@JSONField(serialize = false)
+	public boolean isWithAsEnable() {
+		if (ENABLE_WITH_AS == false) {
+			return false;
+		}
+		if (isMySQL()) {
+			return getDBVersionNums()[0] >= 8;
+		}
+		if (isMariaDB()) {
+			int[] nums = getDBVersionNums();
+			return nums[0] > 10 || (nums[0] == 10 && nums.length > 1 && nums[1] >= 2);
+		}
+		return isPostgreSQL() || isOracle() || isDameng() || isKingBase();
+	}
+
+	/**提前生成 @from 及 key@ 条件里的子查询，把结构完全相同(SQL 及预编译值都相同)的提取为 WITH 公共表表达式，
+	 * 之后 getSubqueryString 对它们只返回 (SELECT * FROM name)，对其它子查询直接用这里生成好的 SQL
+	 * @return WITH `_with_0` AS (SELECT ...), `_with_1` AS (SELECT ...) 或 ""
+	 * @throws Exception
+	 */
+	protected String getWithAsString() throws Exception {
+		WithAs withAs = getWithAs();
+		return withAs == null ? "" : withAs.string;
+	}
+
+	/**获取提前生成的子查询，子查询没变时复用上次的结果
+	 * @return 没有多个子查询则返回 null
+	 * @throws Exception
+	 */
+	private WithAs getWithAs() throws Exception {
+		if (isWithAsEnable() == false) {
+			withAs = null;
+			return null;
+		}
+
+		List<Subquery> subqueryList = new ArrayList<>();
+		Subquery from = getFrom();
+		if (from != null) {
+			subqueryList.add(from);
+		}
+
+		Map<String, Object> where = getWhere();
+		if (where != null) {
+			for (Object v : where.values()) {
+				if (v instanceof Subquery) {
+					subqueryList.add((Subquery) v);
 				}
+			}
+		}
+
+		if (subqueryList.size() < 2) {
+			withAs = null;
+			return null;
+		}
+
+		WithAs cache = withAs;
+		if (cache != null && cache.prepared == isPrepared() && cache.subqueryList.equals(subqueryList)) {
+			return cache;
+		}
 
-				String sql = "SELECT " + (config.getCache() == JSONRequest.CACHE_RAM ? "SQL_NO_CACHE " : "") + column + " FROM " + getConditionString(tablePath, config);
-				return explain + config.getOraclePageSql(sql);
+		Map<Subquery, apijson.orm.Entry<String, List<Object>>> cacheMap = new HashMap<>();
+		Map<String, List<Subquery>> sameMap = new LinkedHashMap<>();  // 保证顺序，WITH 里的预编译值才不会错乱
+		for (Subquery sq : subqueryList) {
+			SQLConfig cfg = sq.getConfig();
+			verifyInlineShard(cfg, "子查询", true);
+			if (cfg instanceof AbstractSQLConfig) {
+				((AbstractSQLConfig) cfg).setSubquery(true).setExpandColumn(false);
+			}
+			cfg.setPreparedValueList(new ArrayList<>());
+			String sql = cfg.getSQL(isPrepared());
+			List<Object> pvl = cfg.getPreparedValueList();
+
+			cacheMap.put(sq, new apijson.orm.Entry<>(sql, pvl));
+
+			String k = sql + "\n" + JSON.toJSONString(pvl);
+			List<Subquery> list = sameMap.get(k);
+			if (list == null) {
+				list = new ArrayList<>();
+				sameMap.put(k, list);
+			}
+			list.add(sq);
+		}
+
+		String q = getQuote();
+		String string = "";
+		Map<Subquery, String> nameMap = null;
+		List<Object> pvl = null;
+		int index = 0;
+		for (List<Subquery> list : sameMap.values()) {
+			if (list.size() < 2) {
+				continue;
 			}
 
-			return explain + "SELECT " + (config.getCache() == JSONRequest.CACHE_RAM ? "SQL_NO_CACHE " : "") + column + " FROM " + getConditionString(tablePath, config) + config.getLimitString();
+			apijson.orm.Entry<String, List<Object>> entry = cacheMap.get(list.get(0));
+			String name = q + "_with_" + index + q;
+			string += (index <= 0 ? "WITH " : ", ") + name + " AS (" + entry.getKey() + ")";
+			index ++;
+
+			if (nameMap == null) {
+				nameMap = new HashMap<>();
+				pvl = new ArrayList<>();
+			}
+			for (Subquery sq : list) {
+				nameMap.put(sq, name);
+			}
+			pvl.addAll(entry.getValue());
 		}
+
+		withAs = new WithAs(subqueryList, isPrepared(), cacheMap, nameMap, pvl, string.isEmpty() ? "" : string + " ");
+		return withAs;
 	}
 
 	/**Oracle的分页获取
@@ -4172,6 +4465,48 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		return "SELECT * FROM (SELECT " + alias + ".*, ROWNUM RN FROM (" + sql + ") " + alias + "  WHERE ROWNUM <= " + (offset + count) + ") WHERE RN > " + offset;
 	}
 
+	/**按 key 分组后每组分页的 SQL，用 row_number() OVER (PARTITION BY key ORDER BY ...) 给每组编号，再取每组第 page 页的 count 条，
+	 * 见 {@link AbstractSQLExecutor#executePartitionPage}。和 {@link #getSQL(AbstractSQLConfig)} 一样由 column, table, join, where 等拼接，
+	 * 排序放到 OVER 内，没有排序则按主键。@from, @explain, @hint 及 WITH AS 不处理
+	 * @param key 分组的字段
+	 * @return 不支持则返回 null，由调用方回退到普通查询
+	 * @throws Exception
+	 */
+	public String getPartitionPageSql(@NotNull String key) throws Exception {
+		int count = getCount();
+		int page = getPage();
+		String tablePath = getTablePath();
+		if (count <= 0 || page < 0 || StringUtil.isEmpty(tablePath, true) || RequestMethod.isGetMethod(getMethod(), true) == false
+				|| isExplain() || isTest() || StringUtil.isNotEmpty(getProcedure(), true) || getFrom() != null
+				|| (getHint() != null && getHint().isEmpty() == false)) {
+			return null;
+		}
+
+		setPreparedValueList(new ArrayList<Object>());
+		if (getWithAs() != null) {  // WITH 必须在整条语句最前面
+			return null;
+		}
+
+		String q = getQuote();
+		String order = getOrderString(true);
+		if (StringUtil.isEmpty(order, true)) {  // SQL Server 等要求 OVER 内必须有 ORDER BY
+			order = " ORDER BY " + q + getIdKey() + q;
+		}
+
+		String originOrder = getOrder();
+		setOrder((String) null);  // 子查询内不排序，SQL Server 等不允许子查询内 ORDER BY
+		try {
+			String rn = q + "_row_num_" + q;
+			return "SELECT * FROM (SELECT " + (getCache() == JSONRequest.CACHE_RAM ? "SQL_NO_CACHE " : "") + getColumnString()
+					+ ", row_number() OVER (PARTITION BY " + q + key + q + order + ") AS " + rn
+					+ " FROM " + getConditionString(tablePath, this) + ") " + q + "_t" + q
+					+ " WHERE " + rn + " > " + page*count + " AND " + rn + " <= " + (page + 1)*count + " ORDER BY " + rn;
+		}
+		finally {
+			setOrder(originOrder);
+		}
+	}
+
 	/**获取条件SQL字符串
 	 * @param table
 	 * @param config
@@ -4266,6 +4601,9 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 			for (Join j : joinList) {
 				onGetJoinString(j);
 
+				// APP JOIN 单独在副表自己的数据源执行，只要求路由到确定的分片
+				verifyInlineShard(j.getJoinConfig(), "join", j.isAppJoin() == false);
+
 				if (j.isAppJoin()) { // APP JOIN，只是作为一个标记，执行完主表的查询后自动执行副表的查询 User.id IN($commentIdList)
 					continue;
 				}
@@ -4594,7 +4932,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		config = parseJoin(method, config, joinList, callback); //放后面会导致主表是空对象时 joinList 未解析
 
 		if (request.isEmpty()) { // User:{} 这种空内容在查询时也有效
-			return config; //request.remove(key); 前都可以直接return，之后必须保证 put 回去
+			return StringUtil.isEmpty(datasource) ? routeShard(config) : config; //request.remove(key); 前都可以直接return，之后必须保证 put 回去
 		}
 
 		//对 id, id{}, userId, userId{} 处理，这些只要不为 null 就一定会作为 AND 条件 <<<<<<<<<<<<<<<<<<<<<<<<<
@@ -4731,6 +5069,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 		String order = request.getString(KEY_ORDER);
 		String raw = request.getString(KEY_RAW);
 		String json = request.getString(KEY_JSON);
+		String hint = request.getString(KEY_HINT);
 
 		try {
 			//强制作为条件且放在最前面优化性能
@@ -4756,6 +5095,7 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 			request.remove(KEY_ORDER);
 			request.remove(KEY_RAW);
 			request.remove(KEY_JSON);
+			request.remove(KEY_HINT);
 
 
 			// @null <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
@@ -4894,27 +5234,13 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 				}
 
 				if (StringUtil.isNotEmpty(combineExpr, true)) {
+					// 解析结果会缓存，之后 getWhereString 直接复用
+					CombineExpression expr = CombineExpression.parse(combineExpr, table + ":{ @combine:'" + combineExpr + "' }");
 					List<String> banKeyList = Arrays.asList(idKey, idInKey, userIdKey, userIdInKey);
 					for (String key : banKeyList) {
-						String str = combineExpr;
-						while (str.isEmpty() == false) {
-							int index = str.indexOf(key);
-							if (index < 0) {
-								break;
-							}
-
-							char left = index <= 0 ? ' ' : str.charAt(index - 1);
-							char right = index >= str.length() - key.length() ? ' ' : str.charAt(index + key.length());
-							if ((left == ' ' || left == '(' || left == '&' || left == '|' || left == '!') && (right == ' ' || right == ')')) {
-								throw new UnsupportedOperationException(table + ":{} 里的 @combine:value 中的 value 里 " + key + " 不合法！"
-										+ "不允许传 [" + idKey + ", " + idInKey + ", " + userIdKey + ", " + userIdInKey + "] 其中任何一个！");
-							}
-
-							int newIndex = index + key.length() + 1;
-							if (str.length() <= newIndex) {
-								break;
-							}
-							str = str.substring(newIndex);
+						if (expr.getKeyCountMap().containsKey(key)) {
+							throw new UnsupportedOperationException(table + ":{} 里的 @combine:value 中的 value 里 " + key + " 不合法！"
+									+ "不允许传 [" + idKey + ", " + idInKey + ", " + userIdKey + ", " + userIdInKey + "] 其中任何一个！");
 						}
 					}
 				}
@@ -5166,6 +5492,12 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 			String[] jsons = StringUtil.split(json);
 			config.setJson(jsons == null || jsons.length <= 0 ? null : new ArrayList<>(Arrays.asList(jsons)));
 
+			String[] hints = StringUtil.split(hint, ";");
+			if (hints != null && hints.length > 0 && RequestMethod.isQueryMethod(method) == false) {
+				throw new IllegalArgumentException(table + ":{ @hint:value } 不合法！只有 GET, HEAD 等查询请求才允许传 @hint ！");
+			}
+			config.setHint(hints == null || hints.length <= 0 ? null : new ArrayList<>(Arrays.asList(hints)));
+
 		}
 		finally {  // 后面还可能用到，要还原
 			// id, id{}, userId, userIdIn 条件
@@ -5200,8 +5532,94 @@ public abstract class AbstractSQLConfig implements SQLConfig {
 			request.put(KEY_ORDER, order);
 			request.put(KEY_RAW, raw);
 			request.put(KEY_JSON, json);
+			request.put(KEY_HINT, hint);
+		}
+
+		return StringUtil.isEmpty(datasource) ? routeShard(config) : config;
+	}
+
+	/**子查询、JOIN 副表是分片表时，必须传分片字段路由到确定的分片，不支持分散查询；
+	 * 拼接到外层 SQL 内的还只能在外层的数据源执行，所以必须和外层路由到同一个数据源，否则结果是错的
+	 * @param cfg
+	 * @param where
+	 * @param isInline 是否拼接到外层 SQL 内
+	 */
+	protected void verifyInlineShard(SQLConfig cfg, String where, boolean isInline) {
+		String table = cfg == null ? null : cfg.getTable();
+		ShardRouter router = SHARD_ROUTER_MAP == null || table == null ? null : SHARD_ROUTER_MAP.get(table);
+		if (router == null) {
+			return;
+		}
+
+		List<String> list = cfg.getShardDatasourceList();
+		if (list != null && list.isEmpty() == false) {
+			throw new UnsupportedOperationException(getTable() + " 的 " + where + " 中 " + table + " 是分片表，必须传分片字段 "
+					+ router.getColumn() + " 的值来确定分片，不支持分散到全部分片查询！");
+		}
+		if (isInline && StringUtil.equals(cfg.getDatasource(), getDatasource()) == false) {
+			throw new UnsupportedOperationException(getTable() + " 的 " + where + " 中 " + table + " 是分片表，路由到的数据源 "
+					+ cfg.getDatasource() + " 必须和外层的 " + getDatasource() + " 相同！");
+		}
+	}
+
+	/**分片路由：有分片字段的值则路由到对应分片的数据源；
+	 * 没有则查询请求分散到全部分片再合并结果，见 {@link AbstractSQLExecutor#executeShard}，增删改请求直接报错
+	 * @param config
+	 * @return
+	 */
+	public static SQLConfig routeShard(@NotNull SQLConfig config) {
+		String table = config.getTable();
+		ShardRouter router = SHARD_ROUTER_MAP == null || table == null ? null : SHARD_ROUTER_MAP.get(table);
+		if (router == null) {
+			return config;
 		}
 
+		RequestMethod method = config.getMethod();
+		String key = router.getColumn();
+
+		String datasource = null;
+		if (method == POST) {  // 批量新增每一行都必须在同一个分片
+			List<String> column = config.getColumn();
+			int index = column == null ? -1 : column.indexOf(key);
+			List<List<Object>> valuess = index < 0 ? null : config.getValues();
+			if (valuess != null) {
+				for (List<Object> vs : valuess) {
+					Object v = vs == null || vs.size() <= index ? null : vs.get(index);
+					String ds = v == null ? null : router.route(v);
+					if (ds == null || (datasource != null && datasource.equals(ds) == false)) {
+						throw new IllegalArgumentException(table + ":{ " + key + ": value } 不合法！" + table + " 是分片表，"
+								+ "POST 请求每一项都必须传分片字段 " + key + " ，且批量新增的全部项必须路由到同一个分片！");
+					}
+					datasource = ds;
+				}
+			}
+		}
+		else {
+			Object v = config.getWhere(key, true);
+			if (v == null && method == PUT) {
+				Map<String, Object> content = config.getContent();
+				v = content == null ? null : content.get(key);
+			}
+			datasource = v == null ? null : router.route(v);
+		}
+
+		if (datasource != null) {
+			config.setDatasource(datasource);
+			return config;
+		}
+
+		if (RequestMethod.isQueryMethod(method) == false) {
+			throw new IllegalArgumentException(table + ":{ " + key + ": value } 缺少分片字段！" + table + " 是分片表，"
+					+ method + " 请求必须传分片字段 " + key + " 的值来确定分片！");
+		}
+
+		List<String> list = router.getDatasourceList();
+		if (list.size() == 1) {
+			config.setDatasource(list.get(0));
+		}
+		else {
+			config.setShardDatasourceList(list);
+		}
 		return config;
 	}
 
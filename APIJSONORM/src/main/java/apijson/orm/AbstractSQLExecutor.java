@@ -6,6 +6,7 @@ This source code is licensed under the Apache License Version 2.0.*/
 package apijson.orm;
 
 import java.io.BufferedReader;
+import java.math.BigDecimal;
 import java.rmi.ServerError;
 import java.sql.Blob;
 import java.sql.Clob;
@@ -28,11 +29,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import com.alibaba.fastjson.JSON;
@@ -54,6 +62,22 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 
 	public static String KEY_RAW_LIST = "@RAW@LIST";  // 避免和字段命名冲突，不用 $RAW@LIST$ 是因为 $ 会在 fastjson 内部转义，浪费性能
 
+	/**
+	 * 分片表没有传分片字段时，分散到各分片并行查询用的线程池
+	 */
+	public static ExecutorService SHARD_EXECUTOR_SERVICE = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "APIJSON-Shard");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * 分片查询结果按字符串字段 @order 多路归并时是否在内存用 String.compareTo 排序，
+	 * 它是按字符编码逐个比较的，只和 utf8mb4_bin, PostgreSQL "C" 等二进制排序规则一致，
+	 * MySQL 默认的 _ci 等大小写或语言相关的排序规则会和各分片内的顺序不一致导致分页错乱，确定字段是二进制排序规则才开启
+	 */
+	public static boolean ENABLE_SHARD_STRING_ORDER = false;
+
 	private int generatedSQLCount = 0;
 	private int cachedSQLCount = 0;
 	private int executedSQLCount = 0;
@@ -83,6 +107,17 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 		return sqlResultDuration;
 	}
 
+	protected ResultBudget resultBudget;
+	@Override
+	public ResultBudget getResultBudget() {
+		return resultBudget;
+	}
+	@Override
+	public AbstractSQLExecutor setResultBudget(ResultBudget resultBudget) {
+		this.resultBudget = resultBudget;
+		return this;
+	}
+
 
 	/**
 	 * 缓存 Map
@@ -191,7 +226,7 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 		}
 
 		long startTime = System.currentTimeMillis();
-		Log.d(TAG, "\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<"
+		Log.d(TAG, () -> "\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<"
 				+ "\n已生成 " + generatedSQLCount + " 条 SQL"
 				+ "\nexecute  startTime = " + startTime
 				+ "\ndatabase = " + StringUtil.getString(config.getDatabase())
@@ -202,6 +237,7 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 		ResultSet rs = null;
 		List<JSONObject> resultList = null;
 		Map<String, JSONObject> childMap = null;
+		List<String> shardList = null;
 
 		try {
 			if (unknownType) {
@@ -216,6 +252,10 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 					executedSQLDuration += System.currentTimeMillis() - executedSQLStartTime;
 				}
 
+				if (updateCount >= 0) {
+					RepeatFilter.onUpdate(config, true, getRepeatFilterPendingMap());
+				}
+
 				result = new JSONObject(true);
 				result.put(JSONResponse.KEY_COUNT, updateCount);
 				result.put("update", updateCount >= 0);
@@ -238,6 +278,7 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 					if (updateCount <= 0) {
 						throw new IllegalAccessException("没权限访问或对象不存在！");  // NotExistException 会被 catch 转为成功状态
 					}
+					RepeatFilter.onUpdate(config, false, getRepeatFilterPendingMap());
 
 					// updateCount>0时收集结果。例如更新操作成功时，返回count(affected rows)、id字段
 					result = AbstractParser.newSuccessResult();  // TODO 对 APIAuto 及其它现有的前端/客户端影响比较大，暂时还是返回 code 和 msg，5.0 再移除  new JSONObject(true);
@@ -259,8 +300,9 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 				case GETS:
 				case HEAD:
 				case HEADS:
-					result = isHead || isExplain ? null : getCacheItem(sql, position, config);
-					Log.i(TAG, ">>> execute  result = getCache('" + sql + "', " + position + ") = " + result);
+					JSONObject cacheItem = isHead || isExplain ? null : getCacheItem(sql, position, config);
+					Log.i(TAG, () -> ">>> execute  result = getCache('" + sql + "', " + position + ") = " + cacheItem);  // 不输出时不序列化 result
+					result = cacheItem;
 					if (result != null) {
 						cachedSQLCount ++;
 						List<JSONObject> cache = getCache(sql, config);
@@ -271,11 +313,28 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 						return result;
 					}
 
+					shardList = isExplain ? null : config.getShardDatasourceList();
+					if (shardList != null && shardList.isEmpty() == false) {  // 没有分片字段值，分散到全部分片并行查询后合并
+						executedSQLCount += shardList.size();
+						executedSQLStartTime = System.currentTimeMillis();
+						resultList = executeShard(config, shardList, isHead);
+						executedSQLDuration += System.currentTimeMillis() - executedSQLStartTime;
+						break;
+					}
+
 					if (isExplain == false) { //只有 SELECT 才能 EXPLAIN
 						executedSQLCount ++;
 						executedSQLStartTime = System.currentTimeMillis();
 					}
-					rs = executeQuery(config);  //FIXME SQL Server 是一次返回两个结果集，包括查询结果和执行计划，需要 moreResults
+					try {
+						rs = executeQuery(config);  //FIXME SQL Server 是一次返回两个结果集，包括查询结果和执行计划，需要 moreResults
+					}
+					catch (SQLException e) {
+						if (ColumnCache.MAX_CACHE_COUNT > 0 && config.getColumn() == null) {  // 可能删除了展开 * 后的字段，下次重新记录
+							ColumnCache.remove(ColumnCache.getKey(config));
+						}
+						throw e;
+					}
 					if (isExplain == false) {
 						executedSQLDuration += System.currentTimeMillis() - executedSQLStartTime;
 					}
@@ -288,7 +347,11 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 			}
 
 
-			if (isExplain == false && isHead) {
+			if (shardList != null && shardList.isEmpty() == false) {
+				result = isHead ? resultList.get(0) : null;
+				childMap = new HashMap<>();
+			}
+			else if (isExplain == false && isHead) {
 				if (rs.next() == false) {
 					return AbstractParser.newErrorResult(new SQLException("数据库错误, rs.next() 失败！"));
 				}
@@ -383,6 +446,13 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 				// 直接用数组存取更快  Map<Integer, Join> columnIndexAndJoinMap = isExplain || ! hasJoin ? null : new HashMap<>(length);
 				Join[] columnIndexAndJoinMap = isExplain || ! hasJoin ? null : new Join[length];
 
+				// 没有 @column 的 SELECT * 按表结构记下不隐藏的字段，之后把 * 展开为这些字段，见 ColumnCache
+				String columnCacheKey = isExplain || hasJoin || ColumnCache.MAX_CACHE_COUNT <= 0 || config.getColumn() != null
+						|| RequestMethod.isGetMethod(config.getMethod(), true) == false ? null : ColumnCache.getKey(config);
+				if (columnCacheKey != null && ColumnCache.get(columnCacheKey) == null) {
+					ColumnCache.put(columnCacheKey, ColumnCache.getVisibleColumnList(rsmd));
+				}
+
 //				int viceColumnStart = length + 1; //第一个副表字段的index
 
 //				FIXME 统计游标查找的时长？可能 ResultSet.next() 及 getTableName, getColumnName, getObject 比较耗时，因为不是一次加载到内存，而是边读边发
@@ -393,7 +463,9 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 					lastCursorTime = System.currentTimeMillis();
 
 					index ++;
-					Log.d(TAG, "\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n execute while (rs.next()){  index = " + index + "\n\n");
+					if (Log.DEBUG) {
+						Log.d(TAG, "\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n execute while (rs.next()){  index = " + index + "\n\n");
+					}
 
 					JSONObject item = new JSONObject(true);
 					JSONObject curItem = item;
@@ -570,8 +642,13 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 					}
 
 					resultList = onPutTable(config, rs, rsmd, resultList, index, item);
+					if (resultBudget != null) {
+						resultBudget.addRow(length, ResultBudget.estimateSize(item));
+					}
 
-					Log.d(TAG, "execute  while (rs.next()) { resultList.put( " + index + ", result); " + "\n >>>>>>>>>>>>>>>>>>>>>>>>>>> \n\n");
+					if (Log.DEBUG) {
+						Log.d(TAG, "execute  while (rs.next()) { resultList.put( " + index + ", result); " + "\n >>>>>>>>>>>>>>>>>>>>>>>>>>> \n\n");
+					}
 				}
 			}
 		}
@@ -621,7 +698,9 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 			}
 
 			putCache(sql, resultList, config);
-			Log.i(TAG, ">>> execute  putCache('" + sql + "', resultList);  resultList.size() = " + resultList.size());
+			if (Log.DEBUG) {
+				Log.i(TAG, ">>> execute  putCache('" + sql + "', resultList);  resultList.size() = " + resultList.size());
+			}
 
 			// 数组主表对象额外一次返回全部，方便 Parser 缓存来提高性能
 
@@ -637,12 +716,250 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 		}
 
 		long endTime = System.currentTimeMillis();
-		Log.d(TAG, "\n\n execute  endTime = " + endTime + "; duration = " + (endTime - startTime)
+		Log.d(TAG, () -> "\n\n execute  endTime = " + endTime + "; duration = " + (endTime - startTime)
 				+ "\n return resultList.get(" + position + ");"  + "\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n\n");
 		return result;
 	}
 
 
+	/**分散到全部分片并行执行同一条 SQL，再按 @order 多路归并，最后重新按 count, page 分页；
+	 * HEAD 则把各分片的 count 相加。跨分片的 JOIN, @group, @having 无法正确合并，不支持
+	 * @param config
+	 * @param datasourceList
+	 * @param isHead
+	 * @return
+	 * @throws Exception
+	 */
+	protected List<JSONObject> executeShard(@NotNull SQLConfig config, @NotNull List<String> datasourceList, boolean isHead) throws Exception {
+		List<Join> joinList = config.getJoinList();
+		if (joinList != null) {
+			for (Join join : joinList) {
+				if (join != null && join.isSQLJoin()) {
+					throw new UnsupportedOperationException(config.getTable() + " 是分片表，没有传分片字段时不支持 SQL JOIN ！");
+				}
+			}
+		}
+		if (StringUtil.isEmpty(config.getGroup(), true) == false || (config.getHaving() != null && config.getHaving().isEmpty() == false)) {
+			throw new UnsupportedOperationException(config.getTable() + " 是分片表，没有传分片字段时不支持 @group, @having ！");
+		}
+
+		final String datasource = config.getDatasource();
+		final int count = config.getCount();
+		final int page = config.getPage();
+
+		// 每个分片都要查出前 (page + 1)*count 条，合并排序后才能得到正确的第 page 页
+		List<PreparedStatement> statementList = new ArrayList<>(datasourceList.size());
+		try {
+			if (isHead == false && count > 0) {
+				config.setCount(count*(page + 1));
+				config.setPage(0);
+			}
+			String sql = config.getSQL(config.isPrepared());
+
+			for (String ds : datasourceList) {  // 连接及事务状态都不是线程安全的，在当前线程创建好 Statement
+				config.setDatasource(ds);
+				statementList.add(getStatement(config, sql));
+			}
+		}
+		catch (Exception e) {
+			for (PreparedStatement stt : statementList) {
+				closeQuietly(stt);
+			}
+			throw e;
+		}
+		finally {
+			config.setDatasource(datasource);
+			config.setCount(count);
+			config.setPage(page);
+		}
+
+		// 线程池内只执行查询，取值及 onPutColumn, onPutTable 等可重写的方法都在当前线程调用，和单库查询一致
+		List<Future<ResultSet>> futureList = new ArrayList<>(statementList.size());
+		for (PreparedStatement stt : statementList) {
+			futureList.add(SHARD_EXECUTOR_SERVICE.submit(() -> stt.executeQuery()));
+		}
+
+		List<List<JSONObject>> shardResultList = new ArrayList<>(futureList.size());
+		long total = 0;
+		Exception error = null;
+		for (int s = 0; s < futureList.size(); s++) {
+			ResultSet rs = null;
+			try {
+				try {
+					rs = futureList.get(s).get();  // 出错后也要等其它分片执行完，才能关闭对应的 ResultSet
+				}
+				catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					throw cause instanceof Exception ? (Exception) cause : e;
+				}
+				if (error != null) {
+					continue;
+				}
+
+				if (isHead) {
+					total += rs.next() ? rs.getLong(1) : 0;
+					continue;
+				}
+
+				long startTime = System.currentTimeMillis();
+				ResultSetMetaData rsmd = rs.getMetaData();
+				final int length = rsmd.getColumnCount();
+				sqlResultDuration += System.currentTimeMillis() - startTime;
+
+				Map<String, JSONObject> childMap = new HashMap<>();
+				List<JSONObject> list = new ArrayList<>();
+				int index = -1;
+				while (rs.next()) {
+					index ++;
+					JSONObject item = new JSONObject(true);
+					for (int i = 1; i <= length; i++) {
+						onPutColumn(config, rs, rsmd, index, item, i, null, childMap);
+					}
+					list = onPutTable(config, rs, rsmd, list, index, item);
+					if (resultBudget != null) {
+						resultBudget.addRow(length, ResultBudget.estimateSize(item));
+					}
+				}
+				shardResultList.add(list);
+			}
+			catch (Exception e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+			finally {
+				if (rs != null) {
+					closeQuietly(rs);
+				}
+				closeQuietly(statementList.get(s));
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+
+		if (isHead) {
+
+			JSONObject result = AbstractParser.newSuccessResult();
+			result.put(JSONResponse.KEY_COUNT, total);
+			List<JSONObject> resultList = new ArrayList<>(1);
+			resultList.add(result);
+			return resultList;
+		}
+
+		List<JSONObject> mergedList = mergeShardResult(config, shardResultList);
+
+		int start = count <= 0 ? 0 : Math.min(count*page, mergedList.size());
+		int end = count <= 0 ? mergedList.size() : Math.min(start + count, mergedList.size());
+		return new ArrayList<>(mergedList.subList(start, end));
+	}
+
+	/**按 @order 对各分片已排好序的结果多路归并，没有 @order 或有 rand() 等非字段排序时按分片顺序拼接
+	 * @param config
+	 * @param shardResultList
+	 * @return
+	 */
+	protected List<JSONObject> mergeShardResult(@NotNull SQLConfig config, @NotNull List<List<JSONObject>> shardResultList) {
+		int size = 0;
+		for (List<JSONObject> list : shardResultList) {
+			size += list.size();
+		}
+		List<JSONObject> mergedList = new ArrayList<>(size);
+
+		String[] orders = StringUtil.split(config.getOrder());
+		List<String> keyList = new ArrayList<>();
+		List<Boolean> descList = new ArrayList<>();
+		if (orders != null) {
+			for (String item : orders) {
+				boolean desc = item.endsWith("-");
+				String key = desc || item.endsWith("+") ? item.substring(0, item.length() - 1) : item;
+				if (StringUtil.isName(key) == false) {  // rand() 等无法在内存排序
+					keyList = null;
+					break;
+				}
+				keyList.add(key);
+				descList.add(desc);
+			}
+		}
+
+		if (keyList == null || keyList.isEmpty()) {
+			for (List<JSONObject> list : shardResultList) {
+				mergedList.addAll(list);
+			}
+			return mergedList;
+		}
+
+		final List<String> keys = keyList;
+		Comparator<JSONObject> comparator = (a, b) -> {
+			for (int i = 0; i < keys.size(); i++) {
+				int c = compareShardValue(a.get(keys.get(i)), b.get(keys.get(i)));
+				if (c != 0) {
+					return descList.get(i) ? -c : c;
+				}
+			}
+			return 0;
+		};
+
+		// int[]{ 分片下标, 分片内下标 }
+		PriorityQueue<int[]> queue = new PriorityQueue<>(Math.max(1, shardResultList.size()), (a, b) -> {
+			int c = comparator.compare(shardResultList.get(a[0]).get(a[1]), shardResultList.get(b[0]).get(b[1]));
+			return c != 0 ? c : Integer.compare(a[0], b[0]);
+		});
+		for (int i = 0; i < shardResultList.size(); i++) {
+			if (shardResultList.get(i).isEmpty() == false) {
+				queue.add(new int[]{ i, 0 });
+			}
+		}
+
+		while (queue.isEmpty() == false) {
+			int[] head = queue.poll();
+			List<JSONObject> list = shardResultList.get(head[0]);
+			mergedList.add(list.get(head[1]));
+			if (head[1] + 1 < list.size()) {
+				queue.add(new int[]{ head[0], head[1] + 1 });
+			}
+		}
+
+		return mergedList;
+	}
+
+	/**比较分片结果中的字段值，null 最小，数值按大小，时间按先后，
+	 * 字符串等其它值和数据库排序规则可能不一致，只有开启 {@link #ENABLE_SHARD_STRING_ORDER} 才按自身规则或字符串比较
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected int compareShardValue(Object a, Object b) {
+		if (a == null || b == null) {
+			return a == null ? (b == null ? 0 : -1) : 1;
+		}
+		if (a instanceof Number && b instanceof Number) {
+			return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+		}
+		if (a instanceof java.util.Date && b instanceof java.util.Date) {
+			return ((java.util.Date) a).compareTo((java.util.Date) b);
+		}
+		if (ENABLE_SHARD_STRING_ORDER == false) {
+			throw new UnsupportedOperationException("分片表没有传分片字段时 @order 只支持数值和时间字段，字符串的内存排序可能和数据库排序规则不一致！"
+					+ "确定是二进制排序规则可开启 AbstractSQLExecutor.ENABLE_SHARD_STRING_ORDER");
+		}
+		if (a instanceof Comparable && a.getClass().isInstance(b)) {
+			return ((Comparable) a).compareTo(b);
+		}
+		return a.toString().compareTo(b.toString());
+	}
+
+	private void closeQuietly(AutoCloseable closeable) {
+		try {
+			closeable.close();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+
 	/**@ APP JOIN 查询副表并缓存到 childMap
 	 * @param config
 	 * @param resultList
@@ -808,18 +1125,25 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 						lastCursorTime = System.currentTimeMillis();
 
 						index ++;
-						Log.d(TAG, "\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n executeAppJoin while (rs.next()){  index = " + index + "\n\n");
+						if (Log.DEBUG) {
+							Log.d(TAG, "\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n executeAppJoin while (rs.next()){  index = " + index + "\n\n");
+						}
 
 						JSONObject result = new JSONObject(true);
 
 						for (int i = 1; i <= length; i++) {
 							result = onPutColumn(jc, rs, rsmd, index, result, i, null, null);
 						}
+						if (resultBudget != null) {
+							resultBudget.addRow(length, ResultBudget.estimateSize(result));
+						}
 
 						//每个 result 都要用新的 SQL 来存 childResultMap = onPutTable(config, rs, rsmd, childResultMap, index, result);
 
-						Log.d(TAG, "\n executeAppJoin  while (rs.next()) { resultList.put(" + index + ", result); "
-								+ "\n >>>>>>>>>>>>>>>>>>>>>>>>>>> \n\n");
+						if (Log.DEBUG) {
+							Log.d(TAG, "\n executeAppJoin  while (rs.next()) { resultList.put(" + index + ", result); "
+									+ "\n >>>>>>>>>>>>>>>>>>>>>>>>>>> \n\n");
+						}
 
 						//TODO 兼容复杂关联
 						cc.putWhere(key, result.get(key), true);  // APP JOIN 应该有且只有一个 ON 条件
@@ -838,7 +1162,7 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 						      //              }
 						      results.add(result);  //缓存到 childMap
 						      count ++;
-						      Log.d(TAG, ">>> executeAppJoin childMap.put('" + cacheSql + "', result);  childMap.size() = " + childMap.size());
+						      Log.d(TAG, () -> ">>> executeAppJoin childMap.put('" + cacheSql + "', result);  childMap.size() = " + childMap.size());
 						}
 					  }
 				}
@@ -864,6 +1188,154 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 
 
 
+	/**数组内的子数组在父数组每一项内都按 key 引用父项的值分别分页查询，例如
+	 * "[]":{ "Moment":{}, "Comment[]":{ "count":3, "Comment":{ "momentId@":"[]/Moment/id" } } }，
+	 * 合并为一条用 row_number() OVER (PARTITION BY key ...) 分组分页的 SQL 一次查出全部父项的子数组，
+	 * 再按每个父项单独查询时会生成的 SQL 放入缓存，之后每一项都直接命中缓存。
+	 * MySQL 5.7 及以下、TDengine 等不支持窗口函数的，以及有 @hint 等 {@link AbstractSQLConfig#getPartitionPageSql} 不支持的不处理，
+	 * 执行出错也会返回 false 来回退到每一项单独查询。
+	 * 注意 row_number() 需要对 key IN (...) 匹配到的全部子项排序编号，不像每一项单独查询或 LATERAL, CROSS APPLY 那样
+	 * 每个父项只按索引读取 count 条，所以只适合每个父项子项不多的情况，需要时手动开启 {@link AbstractObjectParser#ENABLE_ARRAY_CHILD_PAGE_BATCH}
+	 * @param config 子数组主表的 SQLConfig，where 中的 key 为第 0 项的值，执行后还原
+	 * @param key 引用父数组主表字段的条件 key
+	 * @param valueList 父数组全部项引用的值，不重复
+	 * @return 是否已执行并缓存
+	 * @throws Exception
+	 */
+	public boolean executePartitionPage(@NotNull SQLConfig config, @NotNull String key, @NotNull List<Object> valueList) throws Exception {
+		int count = config.getCount();
+		int page = config.getPage();
+		if (count <= 0 || page < 0 || config instanceof AbstractSQLConfig == false || config.isTDengine()
+				|| (config.isMySQL() && config.getDBVersionNums()[0] < 8)
+				|| (config.getColumn() == null && (config.isOracle() || config.isDameng()))) {  // Oracle 不支持 SELECT *, row_number()
+			return false;
+		}
+
+		Map<String, Object> originWhere = new LinkedHashMap<>(config.getWhere());
+		Map<String, List<String>> originCombineMap = new LinkedHashMap<>();
+		for (Entry<String, List<String>> entry : config.getCombineMap().entrySet()) {
+			originCombineMap.put(entry.getKey(), entry.getValue() == null ? null : new ArrayList<>(entry.getValue()));
+		}
+		String originOrder = config.getOrder();
+		boolean prepared = config.isPrepared();
+
+		try {
+			// 替换为 "key{}": [value0, value1, value2...]，再由 SQLConfig 按各部分生成分组分页的 SQL
+			config.putWhere(key, null, false);
+			config.putWhere(key + "{}", valueList, true);
+
+			String sql = ((AbstractSQLConfig) config).getPartitionPageSql(key);
+			if (sql == null) {
+				return false;
+			}
+
+			generatedSQLCount ++;
+			long startTime = System.currentTimeMillis();
+			String s = sql;
+			Log.d(TAG, () -> "\n executePartitionPage  startTime = " + startTime + "\n sql = \n " + s + "\n");
+
+			// PostgreSQL 等在事务内执行出错后，必须回滚才能继续执行后面的 SQL
+			Connection conn = getConnection(config);
+			Savepoint savepoint = null;
+			if (conn.getAutoCommit() == false) {
+				try {
+					savepoint = conn.setSavepoint();
+				}
+				catch (Exception e) {  // 不支持 Savepoint 的出错后无法继续，所以不合并
+					Log.w(TAG, "executePartitionPage  conn.setSavepoint() >> catch " + e.getMessage() + " >> return false");
+					return false;
+				}
+			}
+
+			Map<String, List<JSONObject>> groupMap = new HashMap<>();
+			ResultSet rs = null;
+			try {
+				executedSQLCount ++;
+				try {
+					rs = executeQuery(config, sql);
+				}
+				catch (SQLException e) {  // 当前数据库或版本不支持改写后的 SQL，回退到每一项单独查询
+					Log.w(TAG, "executePartitionPage  executeQuery >> catch " + e.getMessage() + " >> return false");
+					if (savepoint != null) {
+						conn.rollback(savepoint);
+					}
+					return false;
+				}
+				executedSQLDuration += System.currentTimeMillis() - startTime;
+
+				long startTime2 = System.currentTimeMillis();
+				ResultSetMetaData rsmd = rs.getMetaData();
+				final int length = rsmd.getColumnCount();
+				sqlResultDuration += System.currentTimeMillis() - startTime2;
+
+				int position = -1;
+				while (rs.next()) {
+					position ++;
+
+					JSONObject item = new JSONObject(true);
+					for (int i = 1; i <= length; i++) {
+						item = onPutColumn(config, rs, rsmd, position, item, i, null, null);
+					}
+					item.remove("_row_num_");
+					if (resultBudget != null) {
+						resultBudget.addRow(length, ResultBudget.estimateSize(item));
+					}
+
+					Object v = item.get(key);
+					if (v == null) {
+						continue;
+					}
+
+					List<JSONObject> list = groupMap.get(v.toString());
+					if (list == null) {
+						list = new ArrayList<>(count);
+						groupMap.put(v.toString(), list);
+					}
+					list.add(item);
+				}
+			}
+			finally {
+				if (rs != null) {
+					try {
+						rs.close();
+					}
+					catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			}
+
+			// 按每一项会生成的 SQL 缓存，查不到的也缓存空列表来避免再次查询
+			config.setWhere(new LinkedHashMap<>(originWhere));
+			config.setCombineMap(originCombineMap);
+			config.setOrder(originOrder);
+			config.setCount(count);
+			config.setPage(page);
+			for (Object v : valueList) {
+				config.getWhere().put(key, v);
+
+				String itemSql = config.getSQL(false);
+				config.setPrepared(prepared);
+
+				List<JSONObject> list = groupMap.get(v.toString());
+				putCache(itemSql, list == null ? new ArrayList<>() : list, config);
+			}
+
+			Log.d(TAG, () -> "\n executePartitionPage  duration = " + (System.currentTimeMillis() - startTime) + "\n");
+			return true;
+		}
+		finally {
+			config.setWhere(originWhere);
+			config.setCombineMap(originCombineMap);
+			config.setOrder(originOrder);
+			config.setCount(count);
+			config.setPage(page);
+			config.setPrepared(prepared);
+			config.setPreparedValueList(new ArrayList<>());
+		}
+	}
+
+
 	/**table.put(rsmd.getColumnLabel(i), rs.getObject(i));
 	 * @param config
 	 * @param rs
@@ -1148,6 +1620,24 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 
 	//事务处理 <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
 	private int transactionIsolation;
+
+	/**
+	 * 事务内写操作同步到 {@link RepeatFilter} 的值，提交后再同步一次
+	 */
+	protected Map<RepeatFilter, List<Object>> repeatFilterPendingMap;
+	/**在事务内才记下待提交的，自动提交的执行后就已经提交了
+	 * @return
+	 */
+	protected Map<RepeatFilter, List<Object>> getRepeatFilterPendingMap() {
+		if (getTransactionIsolation() == Connection.TRANSACTION_NONE) {
+			return null;
+		}
+		if (repeatFilterPendingMap == null) {
+			repeatFilterPendingMap = new HashMap<>();
+		}
+		return repeatFilterPendingMap;
+	}
+
 	@Override
 	public int getTransactionIsolation() {
 		return transactionIsolation;
@@ -1175,6 +1665,9 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 	public void rollback() throws SQLException {
 		Log.d("\n\n" + TAG, "<<<<<<<<<<<<<< TRANSACTION rollback >>>>>>>>>>>>>>>>>>>>>>> \n\n");
 		//权限校验不通过，connection 也不会生成，还是得判断  //不做判断，如果掩盖了问题，调用层都不知道为啥事务没有提交成功
+		if (repeatFilterPendingMap != null) {
+			repeatFilterPendingMap.clear();
+		}
 		if (connection == null) { // || connection.isClosed()) {
 			return;
 		}
@@ -1197,6 +1690,7 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 			return;
 		}
 		connection.commit();
+		RepeatFilter.onCommit(repeatFilterPendingMap);
 	}
 	//事务处理 >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
 
@@ -1206,6 +1700,7 @@ public abstract class AbstractSQLExecutor implements SQLExecutor {
 	public void close() {
 		cacheMap.clear();
 		cacheMap = null;
+		repeatFilterPendingMap = null;
 
 		generatedSQLCount = 0;
 		cachedSQLCount = 0;
@@ -30,14 +30,17 @@ import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import javax.activation.UnsupportedDataTypeException;
@@ -122,17 +125,18 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 	// <User, <GET, [OWNER, ADMIN]>>
 	@NotNull
 	public static Map<String, Map<RequestMethod, String[]>> SYSTEM_ACCESS_MAP;
+	// ACCESS_MAP, REQUEST_MAP, COMPILE_MAP 每个请求都会读，启动后运行时重新加载必须通过 setAccessMap 等整体替换，不能直接修改
 	@NotNull
-	public static Map<String, Map<RequestMethod, String[]>> ACCESS_MAP;
+	public static volatile Map<String, Map<RequestMethod, String[]>> ACCESS_MAP;
 
 	// <method tag, <version, Request>>
 	// <PUT Comment, <1, { "method":"PUT", "tag":"Comment", "structure":{ "MUST":"id"... }... }>>
 	@NotNull
-	public static Map<String, SortedMap<Integer, JSONObject>> REQUEST_MAP;
+	public static volatile Map<String, SortedMap<Integer, JSONObject>> REQUEST_MAP;
 
 	// 正则匹配的别名快捷方式，例如用 "PHONE" 代替 "^((13[0-9])|(15[^4,\\D])|(18[0-2,5-9])|(17[0-9]))\\d{8}$"
 	@NotNull
-	public static final Map<String, Pattern> COMPILE_MAP;
+	public static volatile Map<String, Pattern> COMPILE_MAP;
 	static {
 		ROLE_MAP = new LinkedHashMap<>();
 		ROLE_MAP.put(UNKNOWN, new Entry<String, Object>());
@@ -186,6 +190,128 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 		COMPILE_MAP = new HashMap<String, Pattern>();
 	}
 
+	/**整体替换 ACCESS_MAP，运行时重新加载 Access 表时用这个，不要修改正在被其它请求读取的 ACCESS_MAP。
+	 * 生成不可修改的新 Map 后通过 volatile 引用一次性发布，读取的请求不用加锁，也不会读到只改了一半的配置
+	 * @param accessMap 不需要包含 SYSTEM_ACCESS_MAP 中的系统表，会自动加上
+	 */
+	public static void setAccessMap(@NotNull Map<String, Map<RequestMethod, String[]>> accessMap) {
+		Map<String, Map<RequestMethod, String[]>> map = new HashMap<>(SYSTEM_ACCESS_MAP);
+		map.putAll(accessMap);
+		Map<String, Map<RequestMethod, String[]>> accessMap2 = Collections.unmodifiableMap(map);
+		ACCESS_BITS = compileAccess(accessMap2);  // 只在这里编译，isAllowRole 只用和 ACCESS_MAP 是同一个实例的
+		ACCESS_MAP = accessMap2;
+	}
+
+	// 角色对应的二进制位，只在编译 ACCESS_MAP 时分配，请求中传的未配置角色不会占用，最多 64 个
+	private static final Map<String, Integer> ROLE_BIT_MAP = new ConcurrentHashMap<>();
+
+	/**通过 {@link #setAccessMap} 发布的 ACCESS_MAP 编译后的权限位，每张表每个 method 一个 long，允许的角色对应的位为 1
+	 */
+	private static class AccessBits {
+		final Map<String, Map<RequestMethod, String[]>> source;
+		final Map<String, long[]> map;
+
+		AccessBits(Map<String, Map<RequestMethod, String[]>> source, Map<String, long[]> map) {
+			this.source = source;
+			this.map = map;
+		}
+	}
+	private static volatile AccessBits ACCESS_BITS;
+
+	private static int getRoleBit(@NotNull String role) {
+		Integer bit = ROLE_BIT_MAP.get(role);
+		if (bit == null) {
+			synchronized (ROLE_BIT_MAP) {
+				bit = ROLE_BIT_MAP.get(role);
+				if (bit == null) {
+					if (ROLE_BIT_MAP.size() >= Long.SIZE) {
+						return -1;
+					}
+					bit = ROLE_BIT_MAP.size();
+					ROLE_BIT_MAP.put(role, bit);
+				}
+			}
+		}
+		return bit;
+	}
+
+	/**把 ACCESS_MAP 编译为权限位，超过 64 个角色的表不编译，仍按 ACCESS_MAP 逐个比较
+	 * @param accessMap
+	 * @return
+	 */
+	private static AccessBits compileAccess(@NotNull Map<String, Map<RequestMethod, String[]>> accessMap) {
+		RequestMethod[] methods = RequestMethod.values();
+		Map<String, long[]> map = new HashMap<>(Math.max(16, accessMap.size()*4/3 + 1));
+		for (Map.Entry<String, Map<RequestMethod, String[]>> entry : accessMap.entrySet()) {
+			Map<RequestMethod, String[]> methodMap = entry.getValue();
+			if (methodMap == null) {
+				continue;
+			}
+
+			long[] bits = new long[methods.length];
+			boolean overflow = false;
+			for (Map.Entry<RequestMethod, String[]> me : methodMap.entrySet()) {
+				String[] roles = me.getValue();
+				if (me.getKey() == null || roles == null) {
+					continue;
+				}
+
+				for (String r : roles) {
+					int bit = r == null ? -2 : getRoleBit(r);
+					if (bit == -1) {
+						overflow = true;
+						break;
+					}
+					if (bit >= 0) {
+						bits[me.getKey().ordinal()] |= 1L << bit;
+					}
+				}
+			}
+
+			if (overflow == false) {
+				map.put(entry.getKey(), bits);
+			}
+		}
+		return new AccessBits(accessMap, map);
+	}
+
+	/**判断 table 是否允许 role 角色的 method 请求。
+	 * ACCESS_MAP 是通过 {@link #setAccessMap} 发布的则查编译好的权限位，只需几次数组和 HashMap 读取，不用创建 List 并逐个比较字符串；
+	 * 直接赋值或修改 ACCESS_MAP 的则每次都按 ACCESS_MAP 逐个比较，避免用到和 ACCESS_MAP 不一致的权限位
+	 * @param table
+	 * @param method
+	 * @param role
+	 * @return
+	 */
+	public static boolean isAllowRole(String table, @NotNull RequestMethod method, String role) {
+		Map<String, Map<RequestMethod, String[]>> accessMap = ACCESS_MAP;
+		AccessBits accessBits = ACCESS_BITS;
+
+		long[] bits = table == null || accessBits == null || accessBits.source != accessMap ? null : accessBits.map.get(table);
+		if (bits != null) {
+			Integer bit = role == null ? null : ROLE_BIT_MAP.get(role);
+			return bit != null && (bits[method.ordinal()] & (1L << bit)) != 0;
+		}
+
+		Map<RequestMethod, String[]> map = table == null ? null : accessMap.get(table);
+		String[] roles = map == null ? null : map.get(method);
+		return roles != null && Arrays.asList(roles).contains(role);
+	}
+	/**整体替换 REQUEST_MAP，见 {@link #setAccessMap}，替换后会清空 {@link StructureCache}，
+	 * 清空时 {@link StructureCache#getGeneration} 会变化，替换前已经读到旧 REQUEST_MAP 的请求不会再把旧结构放回缓存
+	 * @param requestMap
+	 */
+	public static void setRequestMap(@NotNull Map<String, SortedMap<Integer, JSONObject>> requestMap) {
+		REQUEST_MAP = Collections.unmodifiableMap(new HashMap<>(requestMap));
+		StructureCache.clear();  // 必须在替换后，清空后开始的请求才一定能读到新的
+	}
+	/**整体替换 COMPILE_MAP，见 {@link #setAccessMap}
+	 * @param compileMap
+	 */
+	public static void setCompileMap(@NotNull Map<String, Pattern> compileMap) {
+		COMPILE_MAP = Collections.unmodifiableMap(new HashMap<>(compileMap));
+	}
+
 	/**获取权限Map，每种操作都只允许对应的角色
 	 * @param access
 	 * @return
@@ -238,10 +364,24 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 	public Visitor<T> getVisitor() {
 		return visitor;
 	}
+
+	private ContactSet contact;
+	/**获取访问者的联系人集合，同一个请求内只生成一次
+	 * @return
+	 */
+	@NotNull
+	protected ContactSet getContact() {
+		if (contact == null) {
+			contact = ContactSet.of(visitor == null ? null : visitor.getContactIdList());
+		}
+		return contact;
+	}
+
 	@Override
 	public AbstractVerifier<T> setVisitor(Visitor<T> visitor) {
 		this.visitor = visitor;
 		this.visitorId = visitor == null ? null : visitor.getId();
+		this.contact = null;
 
 		//导致内部调用且放行校验(needVerifyLogin, needVerifyRole)也抛异常
 		//		if (visitorId == null) {
@@ -321,9 +461,7 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 				role = config == null ? UNKNOWN : config.getRole();
 			}
 
-			Map<RequestMethod, String[]> map = ACCESS_MAP.get(table);
-
-			if (map == null || Arrays.asList(map.get(method)).contains(role) == false) {
+			if (isAllowRole(table, method, role) == false) {
 				throw new IllegalAccessException(table + " 不允许 " + role + " 用户的 " + method.name() + " 请求！");
 			}
 		}
@@ -359,13 +497,10 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 			break;
 		case CONTACT:
 		case CIRCLE:
-			//TODO 做一个缓存contactMap<visitorId, contactArray>，提高[]:{}查询性能， removeAccessInfo时map.remove(visitorId)
 			//不能在Visitor内null -> [] ! 否则会导致某些查询加上不需要的条件！
-			List<Object> list = visitor.getContactIdList() == null
-			? new ArrayList<Object>() : new ArrayList<Object>(visitor.getContactIdList());
-			if (CIRCLE.equals(role)) {
-				list.add(visitorId);
-			}
+			ContactSet contact = getContact();
+			boolean isCircle = CIRCLE.equals(role);
+			Long vid = isCircle ? ContactSet.toLong(visitorId) : null;
 
 			//key!{}:[] 或 其它没有明确id的条件 等 可以和key{}:list组合。类型错误就报错
 			requestId = config.getWhere(visitorIdKey, true);//JSON里数值不能保证是Long，可能是Integer
@@ -379,7 +514,13 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 			}
 
 			if (requestIdArray == null) {//可能是@得到 || requestIdArray.isEmpty()) {//请求未声明key:id或key{}:[...]条件，自动补全
-				config.putWhere(visitorIdKey+"{}", JSON.parseArray(list), true); //key{}:[]有效，SQLConfig里throw NotExistException
+				List<Object> idList = contact.getIdList();
+				JSONArray list = new JSONArray(new ArrayList<>(idList.size() + 1));
+				list.addAll(idList);
+				if (isCircle) {
+					list.add(visitorId);
+				}
+				config.putWhere(visitorIdKey+"{}", list, true); //key{}:[]有效，SQLConfig里throw NotExistException
 			} 
 			else {//请求已声明key:id或key{}:[]条件，直接验证
 				for (Object id : requestIdArray) {
@@ -389,7 +530,8 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 					if (id instanceof Number == false) {//不能准确地判断Long，可能是Integer
 						throw new UnsupportedDataTypeException(table + ".id类型错误，id类型必须是Long！");
 					}
-					if (list.contains(Long.valueOf("" + id)) == false) {//Integer等转为Long才能正确判断。强转崩溃
+					Long lid = ContactSet.toLong(id);  //Integer等转为Long才能正确判断。强转崩溃
+					if (lid == null || (contact.contains(lid) == false && (vid == null || vid.longValue() != lid.longValue()))) {
 						throw new IllegalAccessException(visitorIdKey + " = " + id + " 的 " + table
 								+ " 不允许 " + role + " 用户的 " + method.name() + " 请求！");
 					}
@@ -617,17 +759,37 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 	public static <T extends Object> JSONObject verifyRequest(@NotNull final RequestMethod method
             , final String name, final JSONObject target, final JSONObject request
             , final int maxUpdateCount, final String database, final String schema, final String datasource
+            , final IdCallback<T> idCallback, final SQLCreator creator) throws Exception {
+		return verifyRequest(method, name, StructureRule.of(target), request, maxUpdateCount, database, schema, datasource, idCallback, creator);
+	}
+	/**从request提取rule指定的内容
+	 * @param method
+	 * @param name
+	 * @param rule 编译好的 structure，见 {@link StructureRule}
+	 * @param request
+	 * @param maxUpdateCount
+	 * @param database
+	 * @param schema
+	 * @param datasource
+	 * @param idCallback
+	 * @param creator
+	 * @return
+	 * @throws Exception
+	 */
+	public static <T extends Object> JSONObject verifyRequest(@NotNull final RequestMethod method
+            , final String name, final StructureRule rule, final JSONObject request
+            , final int maxUpdateCount, final String database, final String schema, final String datasource
             , final IdCallback<T> idCallback, final SQLCreator creator) throws Exception {
         if (ENABLE_VERIFY_CONTENT == false) {
             throw new UnsupportedOperationException("AbstractVerifier.ENABLE_VERIFY_CONTENT == false" +
                     " 时不支持校验请求传参内容！如需支持则设置 AbstractVerifier.ENABLE_VERIFY_CONTENT = true ！");
         }
 
-		Log.i(TAG, "verifyRequest  method = " + method  + "; name = " + name
-				+ "; target = \n" + JSON.toJSONString(target)
+		Log.i(TAG, () -> "verifyRequest  method = " + method  + "; name = " + name
+				+ "; target = \n" + JSON.toJSONString(rule == null ? null : rule.getStructure())
 				+ "\n request = \n" + JSON.toJSONString(request));
 
-		if (target == null || request == null) {// || request.isEmpty()) {
+		if (rule == null || request == null) {// || request.isEmpty()) {
 			Log.i(TAG, "verifyRequest  target == null || request == null >> return null;");
 			return null;
 		}
@@ -640,10 +802,10 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 
 
 		//解析
-		return parse(method, name, target, request, database, schema, idCallback, creator, new OnParseCallback() {
+		return parse(method, name, rule, request, database, schema, datasource, idCallback, creator, new OnParseCallback() {
 
 			@Override
-			public JSONObject onParseJSONObject(String key, JSONObject tobj, JSONObject robj) throws Exception {
+			protected JSONObject onParseJSONObject(String key, JSONObject tobj, StructureRule trule, JSONObject robj) throws Exception {
 				//				Log.i(TAG, "verifyRequest.parse.onParseJSONObject  key = " + key + "; robj = " + robj);
 
 				if (robj == null) {
@@ -682,7 +844,7 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 					}
 				}
 
-				return verifyRequest(method, key, tobj, robj, maxUpdateCount, database, schema, idCallback, creator);
+				return verifyRequest(method, key, trule, robj, maxUpdateCount, database, schema, datasource, idCallback, creator);
 			}
 
 			@Override
@@ -820,7 +982,7 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 			, final JSONObject target, final JSONObject response, final String database, final String schema
 			, final IdCallback<T> idKeyCallback, SQLCreator creator, OnParseCallback callback) throws Exception {
 
-		Log.i(TAG, "verifyResponse  method = " + method  + "; name = " + name
+		Log.i(TAG, () -> "verifyResponse  method = " + method  + "; name = " + name
 				+ "; target = \n" + JSON.toJSONString(target)
 				+ "\n response = \n" + JSON.toJSONString(response));
 
@@ -889,26 +1051,31 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 	public static <T extends Object> JSONObject parse(@NotNull final RequestMethod method, String name
             , JSONObject target, JSONObject real, final String database, final String schema, final String datasource
             , final IdCallback<T> idCallback, SQLCreator creator, @NotNull OnParseCallback callback) throws Exception {
-		if (target == null) {
+		return parse(method, name, StructureRule.of(target), real, database, schema, datasource, idCallback, creator, callback);
+	}
+	/**对request和response不同的解析用callback返回
+	 * @param method
+	 * @param name
+	 * @param rule 编译好的 structure，见 {@link StructureRule}
+	 * @param real
+	 * @param database
+	 * @param schema
+	 * @param datasource
+	 * @param idCallback
+	 * @param creator
+	 * @param callback
+	 * @return
+	 * @throws Exception
+	 */
+	public static <T extends Object> JSONObject parse(@NotNull final RequestMethod method, String name
+            , StructureRule rule, JSONObject real, final String database, final String schema, final String datasource
+            , final IdCallback<T> idCallback, SQLCreator creator, @NotNull OnParseCallback callback) throws Exception {
+		if (rule == null) {
 			return null;
 		}
 
-		// 获取配置<<<<<<<<<<<<<<<<<<<<<<<<<<<<
-		JSONObject type = target.getJSONObject(TYPE.name());
-		JSONObject verify = target.getJSONObject(VERIFY.name());
-		JSONObject insert = target.getJSONObject(INSERT.name());
-		JSONObject update = target.getJSONObject(UPDATE.name());
-		JSONObject replace = target.getJSONObject(REPLACE.name());
-
-		String exist = StringUtil.getNoBlankString(target.getString(EXIST.name()));
-		String unique = StringUtil.getNoBlankString(target.getString(UNIQUE.name()));
-		String remove = StringUtil.getNoBlankString(target.getString(REMOVE.name()));
-		String must = StringUtil.getNoBlankString(target.getString(MUST.name()));
-		String refuse = StringUtil.getNoBlankString(target.getString(REFUSE.name()));
-
-
 		// 移除字段<<<<<<<<<<<<<<<<<<<
-		String[] removes = StringUtil.split(remove);
+		String[] removes = rule.getRemoves();
 		if (removes != null && removes.length > 0) {
 			for (String r : removes) {
 				real.remove(r);
@@ -917,17 +1084,15 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 		// 移除字段>>>>>>>>>>>>>>>>>>>
 
 		// 判断必要字段是否都有<<<<<<<<<<<<<<<<<<<
-		String[] musts = StringUtil.split(must);
-		Set<String> mustSet = new HashSet<String>();
-		
+		String[] musts = rule.getMusts();
+		Set<String> mustSet = rule.getMustSet();
+
 		if (musts != null && musts.length > 0) {
 			for (String s : musts) {
 				if (real.get(s) == null) {  // 可能传null进来，这里还会通过 real.containsKey(s) == false) {
 					throw new IllegalArgumentException(method + "请求，"
-                            + name + " 里面不能缺少 " + s + " 等[" + must + "]内的任何字段！");
+                            + name + " 里面不能缺少 " + s + " 等[" + rule.getMust() + "]内的任何字段！");
 				}
-
-				mustSet.add(s);
 			}
 		}
 		//判断必要字段是否都有>>>>>>>>>>>>>>>>>>>
@@ -937,48 +1102,40 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 
 		//解析内容<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
 
-		Set<Map.Entry<String, Object>> set = new LinkedHashSet<>(target.entrySet());
-		if (set.isEmpty() == false) {
+		String key;
+		Object tvalue;
+		Object rvalue;
+		for (StructureRule.Entry entry : rule.getEntries()) {
+			key = entry.getKey();
+			tvalue = entry.getValue();
+			rvalue = real.get(key);
+			if (callback.onParse(key, tvalue, rvalue) == false) {
+				continue;
+			}
 
-			String key;
-			Object tvalue;
-			Object rvalue;
-			for (Map.Entry<String, Object> entry : set) {
-				key = entry == null ? null : entry.getKey();
-				if (key == null || OPERATION_KEY_LIST.contains(key)) {
-					continue;
+			if (tvalue instanceof JSONObject) { //JSONObject，往下一级提取
+				if (rvalue != null && rvalue instanceof JSONObject == false) {
+					throw new UnsupportedDataTypeException(key + ":value 的value不合法！类型必须是 OBJECT ，结构为 {} !");
 				}
-				tvalue = entry.getValue();
-				rvalue = real.get(key);
-				if (callback.onParse(key, tvalue, rvalue) == false) {
-					continue;
-				}
-
-				if (tvalue instanceof JSONObject) { //JSONObject，往下一级提取
-					if (rvalue != null && rvalue instanceof JSONObject == false) {
-						throw new UnsupportedDataTypeException(key + ":value 的value不合法！类型必须是 OBJECT ，结构为 {} !");
-					}
-					tvalue = callback.onParseJSONObject(key, (JSONObject) tvalue, (JSONObject) rvalue);
-
-					objKeySet.add(key);
-				} else if (tvalue instanceof JSONArray) { //JSONArray
-					if (rvalue != null && rvalue instanceof JSONArray == false) {
-						throw new UnsupportedDataTypeException(key + ":value 的value不合法！类型必须是 ARRAY ，结构为 [] !");
-					}
-					tvalue = callback.onParseJSONArray(key, (JSONArray) tvalue, (JSONArray) rvalue);
+				tvalue = callback.onParseJSONObject(key, (JSONObject) tvalue, entry.getRule(), (JSONObject) rvalue);
 
-					if ((method == RequestMethod.POST || method == RequestMethod.PUT) && JSONRequest.isArrayKey(key)) {
-						objKeySet.add(key);
-					}
-				} else {//其它Object
-					tvalue = callback.onParseObject(key, tvalue, rvalue);
+				objKeySet.add(key);
+			} else if (tvalue instanceof JSONArray) { //JSONArray
+				if (rvalue != null && rvalue instanceof JSONArray == false) {
+					throw new UnsupportedDataTypeException(key + ":value 的value不合法！类型必须是 ARRAY ，结构为 [] !");
 				}
+				tvalue = callback.onParseJSONArray(key, (JSONArray) tvalue, (JSONArray) rvalue);
 
-				if (tvalue != null) {//可以在target中加上一些不需要客户端传的键值对
-					real.put(key, tvalue);
+				if ((method == RequestMethod.POST || method == RequestMethod.PUT) && JSONRequest.isArrayKey(key)) {
+					objKeySet.add(key);
 				}
+			} else {//其它Object
+				tvalue = callback.onParseObject(key, tvalue, rvalue);
 			}
 
+			if (tvalue != null) {//可以在target中加上一些不需要客户端传的键值对
+				real.put(key, tvalue);
+			}
 		}
 
 		//解析内容>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
@@ -988,59 +1145,10 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 		Set<String> rkset = real.keySet(); //解析内容并没有改变rkset
 
 		//解析不允许的字段<<<<<<<<<<<<<<<<<<<
-		String[] refuses = StringUtil.split(refuse);
-		Set<String> refuseSet = new HashSet<String>();
-
-		if (refuses != null && refuses.length > 0) {
-			Set<String> notRefuseSet = new HashSet<String>();
-
-			for (String rfs : refuses) {
-				if (rfs == null) {  // StringUtil.isEmpty(rfs, true) {
-					continue;
-				}
-
-				if (rfs.startsWith("!")) {
-					rfs = rfs.substring(1);
-
-					if (notRefuseSet.contains(rfs)) {
-						throw new ConflictException(REFUSE.name() + ":value 中出现了重复的 !"
-                                + rfs + " ！不允许重复，也不允许一个 key 和取反 !key 同时使用！");
-					}
-					if (refuseSet.contains(rfs)) {
-						throw new ConflictException(REFUSE.name() + ":value 中同时出现了 "
-                                + rfs + " 和 !" + rfs + " ！不允许重复，也不允许一个 key 和取反 !key 同时使用！");
-					}
-
-					if (rfs.equals("")) { // 所有非 MUST
-                        // 对@key放行，@role,@column,自定义@position等， @key:{ "Table":{} } 不会解析内部
-						for (String key : rkset) {
-							if (key == null || key.startsWith("@") || notRefuseSet.contains(key)
-                                    || mustSet.contains(key) || objKeySet.contains(key)) {
-								continue;
-							}
-
-							refuseSet.add(key);
-						}
-					}
-					else {  // 排除 !key 后再禁传其它的
-						notRefuseSet.add(rfs);
-					}
-				}
-				else {
-					if (refuseSet.contains(rfs)) {
-						throw new ConflictException(REFUSE.name() + ":value 中出现了重复的 " + rfs + " ！" +
-                                "不允许重复，也不允许一个 key 和取反 !key 同时使用！");
-					}
-					if (notRefuseSet.contains(rfs)) {
-						throw new ConflictException(REFUSE.name() + ":value 中同时出现了 " + rfs + " 和 !" + rfs + " ！" +
-                                "不允许重复，也不允许一个 key 和取反 !key 同时使用！");
-					}
-
-					refuseSet.add(rfs);
-				}
-			}
+		Set<String> refuseSet = rule.getRefuseSet();
+		if (refuseSet == null) {  // "!" 排除全部非 MUST 字段，和请求传的 key 有关
+			refuseSet = getRefuseSet(rule.getRefuses(), rkset, mustSet, objKeySet);
 		}
-
 		//解析不允许的字段>>>>>>>>>>>>>>>>>>>
 
 
@@ -1083,33 +1191,40 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 
 		//校验与修改Request<<<<<<<<<<<<<<<<<
 		//在tableKeySet校验后操作，避免 导致put/add进去的Table 被当成原Request的内容
-		real = operate(TYPE, type, real, creator);
-		real = operate(VERIFY, verify, real, creator);
-		real = operate(INSERT, insert, real, creator);
-		real = operate(UPDATE, update, real, creator);
-		real = operate(REPLACE, replace, real, creator);
+		real = operate(TYPE, rule.getEntries(TYPE), real, creator);
+		real = operate(VERIFY, rule.getEntries(VERIFY), real, creator);
+		real = operate(INSERT, rule.getEntries(INSERT), real, creator);
+		real = operate(UPDATE, rule.getEntries(UPDATE), real, creator);
+		real = operate(REPLACE, rule.getEntries(REPLACE), real, creator);
 		//校验与修改Request>>>>>>>>>>>>>>>>>
 
 
-		String db = real.getString(apijson.JSONObject.KEY_DATABASE);
-		String sh = real.getString(apijson.JSONObject.KEY_SCHEMA);
-		String ds = real.getString(apijson.JSONObject.KEY_DATASOURCE);
-		if (StringUtil.isEmpty(db, false)) {
-			db = database;
-		}
-		if (StringUtil.isEmpty(sh, false)) {
-			sh = schema;
-		}
-		if (StringUtil.isEmpty(ds, false)) {
-			ds = datasource;
+		String[] exists = rule.getExists();
+		String[] uniques = rule.getUniques();
+		boolean hasExist = exists != null && exists.length > 0;
+		boolean hasUnique = uniques != null && uniques.length > 0;
+
+		String finalIdKey = null;
+		if (hasExist || hasUnique) {
+			String db = real.getString(apijson.JSONObject.KEY_DATABASE);
+			String sh = real.getString(apijson.JSONObject.KEY_SCHEMA);
+			String ds = real.getString(apijson.JSONObject.KEY_DATASOURCE);
+			if (StringUtil.isEmpty(db, false)) {
+				db = database;
+			}
+			if (StringUtil.isEmpty(sh, false)) {
+				sh = schema;
+			}
+			if (StringUtil.isEmpty(ds, false)) {
+				ds = datasource;
+			}
+			String idKey = idCallback == null ? null : idCallback.getIdKey(db, sh, ds, name);
+			finalIdKey = StringUtil.isEmpty(idKey, false) ? apijson.JSONObject.KEY_ID : idKey;
 		}
-		String idKey = idCallback == null ? null : idCallback.getIdKey(db, sh, ds, name);
-		String finalIdKey = StringUtil.isEmpty(idKey, false) ? apijson.JSONObject.KEY_ID : idKey;
 
 		//TODO放在operate前？考虑性能、operate修改后再验证的值是否和原来一样
 		//校验存在<<<<<<<<<<<<<<<<<<< TODO 格式改为 id;version,tag 兼容多个字段联合主键
-		String[] exists = StringUtil.split(exist);
-		if (exists != null && exists.length > 0) {
+		if (hasExist) {
 			long exceptId = real.getLongValue(finalIdKey);
 			for (String e : exists) {
 				verifyExist(name, e, real.get(e), exceptId, creator);
@@ -1119,20 +1234,84 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 
 		//TODO放在operate前？考虑性能、operate修改后再验证的值是否和原来一样
 		//校验重复<<<<<<<<<<<<<<<<<<< TODO 格式改为 id;version,tag 兼容多个字段联合主键
-		String[] uniques = StringUtil.split(unique);
-		if (uniques != null && uniques.length > 0) {
+		if (hasUnique) {
 			long exceptId = real.getLongValue(finalIdKey);
-			for (String u : uniques) {
-				verifyRepeat(name, u, real.get(u), exceptId, finalIdKey, creator);
-			}
+			verifyRepeat(name, uniques, real, exceptId, finalIdKey, creator);
 		}
 		//校验重复>>>>>>>>>>>>>>>>>>>
 
 
-		Log.i(TAG, "parse  return real = " + JSON.toJSONString(real));
+		if (Log.DEBUG) {
+			Log.i(TAG, "parse  return real = " + JSON.toJSONString(real));
+		}
 		return real;
 	}
 
+	/**解析 REFUSE 中不允许传的字段
+	 * @param refuses
+	 * @param rkset 请求传的 key，用于 "!" 排除全部非 MUST 字段
+	 * @param mustSet
+	 * @param objKeySet
+	 * @return
+	 * @throws ConflictException
+	 */
+	static Set<String> getRefuseSet(String[] refuses, @NotNull Set<String> rkset, @NotNull Set<String> mustSet
+			, @NotNull Set<String> objKeySet) throws ConflictException {
+		Set<String> refuseSet = new HashSet<String>();
+
+		if (refuses != null && refuses.length > 0) {
+			Set<String> notRefuseSet = new HashSet<String>();
+
+			for (String rfs : refuses) {
+				if (rfs == null) {  // StringUtil.isEmpty(rfs, true) {
+					continue;
+				}
+
+				if (rfs.startsWith("!")) {
+					rfs = rfs.substring(1);
+
+					if (notRefuseSet.contains(rfs)) {
+						throw new ConflictException(REFUSE.name() + ":value 中出现了重复的 !"
+                                + rfs + " ！不允许重复，也不允许一个 key 和取反 !key 同时使用！");
+					}
+					if (refuseSet.contains(rfs)) {
+						throw new ConflictException(REFUSE.name() + ":value 中同时出现了 "
+                                + rfs + " 和 !" + rfs + " ！不允许重复，也不允许一个 key 和取反 !key 同时使用！");
+					}
+
+					if (rfs.equals("")) { // 所有非 MUST
+                        // 对@key放行，@role,@column,自定义@position等， @key:{ "Table":{} } 不会解析内部
+						for (String key : rkset) {
+							if (key == null || key.startsWith("@") || notRefuseSet.contains(key)
+                                    || mustSet.contains(key) || objKeySet.contains(key)) {
+								continue;
+							}
+
+							refuseSet.add(key);
+						}
+					}
+					else {  // 排除 !key 后再禁传其它的
+						notRefuseSet.add(rfs);
+					}
+				}
+				else {
+					if (refuseSet.contains(rfs)) {
+						throw new ConflictException(REFUSE.name() + ":value 中出现了重复的 " + rfs + " ！" +
+                                "不允许重复，也不允许一个 key 和取反 !key 同时使用！");
+					}
+					if (notRefuseSet.contains(rfs)) {
+						throw new ConflictException(REFUSE.name() + ":value 中同时出现了 " + rfs + " 和 !" + rfs + " ！" +
+                                "不允许重复，也不允许一个 key 和取反 !key 同时使用！");
+					}
+
+					refuseSet.add(rfs);
+				}
+			}
+		}
+
+		return refuseSet;
+	}
+
 
 
 	/**执行操作
@@ -1143,7 +1322,7 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 	 * @return
 	 * @throws Exception
 	 */
-	private static JSONObject operate(Operation opt, JSONObject targetChild
+	private static JSONObject operate(Operation opt, StructureRule.Entry[] targetChild
             , JSONObject real, SQLCreator creator) throws Exception {
 		if (targetChild == null) {
 			return real;
@@ -1153,16 +1332,11 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 		}
 
 
-		Set<Map.Entry<String, Object>> set = new LinkedHashSet<>(targetChild.entrySet());
 		String tk;
 		Object tv;
 
-		for (Map.Entry<String, Object> e : set) {
-			tk = e == null ? null : e.getKey();
-			if (tk == null || OPERATION_KEY_LIST.contains(tk)) {
-				continue;
-			}
-
+		for (StructureRule.Entry e : targetChild) {
+			tk = e.getKey();
 			tv = e.getValue();
 
 			if (opt == TYPE) {
@@ -1360,18 +1534,14 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 
 			JSONArray array = AbstractSQLConfig.newJSONArray(tv);
 
+			String rs = "" + rv;
 			boolean m;
 			boolean isOr = false;
-			Pattern reg;
 			for (Object r : array) {
 				if (r instanceof String == false) {
 					throw new UnsupportedDataTypeException(rk + ":" + rv + " 中value只支持 String 或 [String] 类型！");
 				}
-				reg = COMPILE_MAP.get(r);
-				if (reg == null) {
-					reg = Pattern.compile((String) r);
-				}
-				m = reg.matcher("" + rv).matches();
+				m = PatternCache.matches(PatternCache.get((String) r), rs);
 				if (m) {
 					if (logic.isNot()) {
 						throw new IllegalArgumentException(rk + ":value 中value不合法！必须匹配 " + tk + ":" + tv + " !");
@@ -1481,14 +1651,7 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 		config.putWhere(rv + logic.getChar() + funChar, tv, false);
 		config.setCount(1);
 
-		SQLExecutor executor = creator.createSQLExecutor();
-		JSONObject result = null;
-		try {
-			result = executor.execute(config, false);
-		} finally {
-			executor.close();
-		}
-
+		JSONObject result = execute(config, creator);
 		if (result != null && JSONResponse.isExist(result.getIntValue(JSONResponse.KEY_COUNT)) == false) {
 			throw new IllegalArgumentException(rk + ":value 中value不合法！必须匹配 '" + tk + "': '" + tv + "' ！");
 		}
@@ -1515,17 +1678,12 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 		config.setTable(table);
 		config.putWhere(key, value, false);
 
-		SQLExecutor executor = creator.createSQLExecutor();
-		try {
-			JSONObject result = executor.execute(config, false);
-			if (result == null) {
-				throw new Exception("服务器内部错误  verifyExist  result == null");
-			}
-			if (result.getIntValue(JSONResponse.KEY_COUNT) <= 0) {
-				throw new ConflictException(key + ": " + value + " 不存在！如果必要请先创建！");
-			}
-		} finally {
-			executor.close();
+		JSONObject result = execute(config, creator);
+		if (result == null) {
+			throw new Exception("服务器内部错误  verifyExist  result == null");
+		}
+		if (result.getIntValue(JSONResponse.KEY_COUNT) <= 0) {
+			throw new ConflictException(key + ": " + value + " 不存在！如果必要请先创建！");
 		}
 	}
 
@@ -1570,6 +1728,19 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 			throw new UnsupportedDataTypeException(key + ":value 中value的类型不能为JSON！");
 		}
 
+		RepeatFilter filter = RepeatFilter.get(table, key);
+		if (filter != null && filter.mightContain(value) == false) {  // 肯定不重复
+			return;
+		}
+
+		queryRepeat(table, key, value, exceptId, idKey, creator);
+		if (filter != null && filter.isReady()) {
+			filter.onFalsePositive();
+		}
+	}
+
+	private static void queryRepeat(String table, String key, Object value
+            , long exceptId, String idKey, @NotNull SQLCreator creator) throws Exception {
 		String finalIdKey = StringUtil.isEmpty(idKey, false) ? apijson.JSONObject.KEY_ID : idKey;
 
 		SQLConfig config = creator.createSQLConfig().setMethod(RequestMethod.HEAD).setCount(1).setPage(0);
@@ -1579,15 +1750,116 @@ public abstract class AbstractVerifier<T extends Object> implements Verifier<T>,
 		}
 		config.putWhere(key, value, false);
 
-		SQLExecutor executor = creator.createSQLExecutor();
-		try {
-			JSONObject result = executor.execute(config, false);
-			if (result == null) {
-				throw new Exception("服务器内部错误  verifyRepeat  result == null");
+		JSONObject result = execute(config, creator);
+		if (result == null) {
+			throw new Exception("服务器内部错误  verifyRepeat  result == null");
+		}
+		if (result.getIntValue(JSONResponse.KEY_COUNT) > 0) {
+			throw new ConflictException(key + ": " + value + " 已经存在，不能重复！");
+		}
+	}
+
+	/**验证多个字段是否重复，{@link RepeatFilter} 确定不存在的跳过，剩下的同一张表合并为一条 (key0 = ? OR key1 = ? ...) 的查询，
+	 * 都不重复就只查一次，有重复时才逐个查出是哪个字段重复。
+	 * 每条最多合并 {@link AbstractSQLConfig#MAX_COMBINE_COUNT} 个字段
+	 * @param table
+	 * @param keys
+	 * @param real
+	 * @param exceptId 不包含id
+	 * @param idKey
+	 * @param creator
+	 * @throws Exception
+	 */
+	public static void verifyRepeat(String table, String[] keys, @NotNull JSONObject real
+            , long exceptId, String idKey, @NotNull SQLCreator creator) throws Exception {
+		if (keys == null || keys.length <= 0) {
+			return;
+		}
+
+		Set<String> keySet = new LinkedHashSet<>(keys.length);
+		for (String k : keys) {
+			Object v = k == null ? null : real.get(k);
+			if (v == null) {
+				Log.e(TAG, "verifyRepeat  key == null || value == null >> continue;");
+				continue;
 			}
-			if (result.getIntValue(JSONResponse.KEY_COUNT) > 0) {
-				throw new ConflictException(key + ": " + value + " 已经存在，不能重复！");
+			if (v instanceof JSON) {
+				throw new UnsupportedDataTypeException(k + ":value 中value的类型不能为JSON！");
+			}
+
+			RepeatFilter filter = RepeatFilter.get(table, k);
+			if (filter != null && filter.mightContain(v) == false) {  // 肯定不重复
+				continue;
 			}
+			keySet.add(k);
+		}
+
+		String finalIdKey = StringUtil.isEmpty(idKey, false) ? apijson.JSONObject.KEY_ID : idKey;
+		int max = AbstractSQLConfig.MAX_COMBINE_COUNT <= 0 ? keySet.size() : AbstractSQLConfig.MAX_COMBINE_COUNT;
+
+		List<String> group = new ArrayList<>(Math.min(max, keySet.size()));
+		Iterator<String> iterator = keySet.iterator();
+		while (iterator.hasNext()) {
+			group.add(iterator.next());
+			if (group.size() < max && iterator.hasNext()) {
+				continue;
+			}
+
+			if (group.size() > 1) {
+				SQLConfig config = creator.createSQLConfig().setMethod(RequestMethod.HEAD).setCount(1).setPage(0);
+				config.setTable(table);
+				if (exceptId > 0) { //允许修改自己的属性为该属性原来的值
+					config.putWhere(finalIdKey + "!", exceptId, false);
+				}
+				for (String k : group) {
+					config.putWhere(k, real.get(k), false);
+				}
+				config.setCombine(String.join(" | ", group));
+
+				JSONObject result = execute(config, creator);
+				if (result == null) {
+					throw new Exception("服务器内部错误  verifyRepeat  result == null");
+				}
+				if (result.getIntValue(JSONResponse.KEY_COUNT) <= 0) {
+					onFalsePositive(table, group);
+					group.clear();
+					continue;
+				}
+			}
+
+			for (String k : group) {  // 有重复，逐个查出是哪个字段，和原来报错一致
+				queryRepeat(table, k, real.get(k), exceptId, finalIdKey, creator);
+			}
+			onFalsePositive(table, group);
+			group.clear();
+		}
+	}
+
+	private static void onFalsePositive(String table, List<String> keys) {
+		for (String k : keys) {
+			RepeatFilter filter = RepeatFilter.get(table, k);
+			if (filter != null && filter.isReady()) {
+				filter.onFalsePositive();
+			}
+		}
+	}
+
+	/**执行校验用的查询。creator 是正在解析请求的 Parser 时复用它的 SQLExecutor，和请求在同一个连接和事务内，
+	 * 否则新建 SQLExecutor，用完就关闭
+	 * @param config
+	 * @param creator
+	 * @return
+	 * @throws Exception
+	 */
+	protected static JSONObject execute(@NotNull SQLConfig config, @NotNull SQLCreator creator) throws Exception {
+		SQLExecutor executor = creator instanceof AbstractParser ? ((AbstractParser<?>) creator).sqlExecutor : null;
+		if (executor != null) {
+			return executor.execute(config, false);
+		}
+
+		executor = creator.createSQLExecutor();
+		try {
+			return executor.execute(config, false);
 		} finally {
 			executor.close();
 		}
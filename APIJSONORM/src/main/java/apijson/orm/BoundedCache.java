@@ -0,0 +1,167 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+import apijson.NotNull;
+
+/**有数量上限的缓存，{@link StructureCache}, {@link PatternCache}, {@link CombineExpression} 等共用。
+ * 读写都基于 ConcurrentHashMap 不加全局锁，每次读取只记下访问时间，
+ * 超过上限时由一个线程扫描一遍，批量淘汰最久未使用的，所以是近似 LRU。
+ * 并发写入时数量可能短暂超出上限，但超出上限一倍后写入线程会等待淘汰完成
+ * @author Lemon
+ */
+public class BoundedCache<K, V> {
+
+	private static class Node<V> {
+		final V value;
+		volatile long accessTime;
+
+		Node(V value) {
+			this.value = value;
+			this.accessTime = System.nanoTime();
+		}
+	}
+
+	private final ConcurrentHashMap<K, Node<V>> map = new ConcurrentHashMap<>();
+	private final ReentrantLock evictLock = new ReentrantLock();
+	private final IntSupplier maxCount;
+
+	/**
+	 * @param maxCount 最大数量，每次写入时读取，所以可以传 () -> MAX_CACHE_COUNT 来支持运行时修改
+	 */
+	public BoundedCache(@NotNull IntSupplier maxCount) {
+		this.maxCount = maxCount;
+	}
+
+	public V get(K key) {
+		Node<V> node = key == null ? null : map.get(key);
+		if (node == null) {
+			return null;
+		}
+		node.accessTime = System.nanoTime();
+		return node.value;
+	}
+
+	/**保存，超过上限则淘汰最久未使用的
+	 * @param key
+	 * @param value
+	 * @return 被替换的旧值
+	 */
+	public V put(@NotNull K key, @NotNull V value) {
+		Node<V> old = map.put(key, new Node<>(value));
+		if (old != null) {
+			onRemove(key, old.value);
+		}
+		evict();
+		return old == null ? null : old.value;
+	}
+
+	public V remove(K key) {
+		Node<V> old = key == null ? null : map.remove(key);
+		if (old == null) {
+			return null;
+		}
+		onRemove(key, old.value);
+		return old.value;
+	}
+
+	/**只有当前值仍然是 value 时才移除，避免误删其它线程刚放进来的新值
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public boolean remove(K key, V value) {
+		Node<V> node = key == null ? null : map.get(key);
+		if (node == null || node.value != value || map.remove(key, node) == false) {
+			return false;
+		}
+		onRemove(key, value);
+		return true;
+	}
+
+	/**清空，不会回调 {@link #onRemove}
+	 */
+	public void clear() {
+		map.clear();
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	/**被替换、移除或淘汰后回调，用于同步清理外部索引。
+	 * 淘汰时是在淘汰锁内回调的，如果要加锁，则调用 put 时也要先加同一个锁，否则可能死锁
+	 * @param key
+	 * @param value
+	 */
+	protected void onRemove(K key, V value) {
+	}
+
+	protected void evict() {
+		int max = Math.max(0, maxCount.getAsInt());
+		int size = map.size();
+		if (size <= max) {
+			return;
+		}
+
+		if (size > 2*max + 16) {  // 超出太多，等待正在淘汰的线程完成后再检查一遍
+			evictLock.lock();
+		}
+		else if (evictLock.tryLock() == false) {  // 已经有线程在淘汰
+			return;
+		}
+
+		try {
+			while ((size = map.size()) > max && evictOnce(size, max) > 0) {
+				// 淘汰过程中其它线程继续写入，可能还是超出
+			}
+		}
+		finally {
+			evictLock.unlock();
+		}
+	}
+
+	private int evictOnce(int size, int max) {
+		// 多淘汰 1/8，不用之后每次写入都扫描一遍
+		int count = max <= 0 ? size : size - max + max/8;
+
+		long[] times = new long[size];
+		int n = 0;
+		for (Node<V> node : map.values()) {
+			if (n >= times.length) {
+				break;
+			}
+			times[n++] = node.accessTime;
+		}
+		if (n <= 0) {
+			return 0;
+		}
+
+		Arrays.sort(times, 0, n);
+		long threshold = times[Math.min(count, n) - 1];
+
+		int removed = 0;
+		for (Entry<K, Node<V>> entry : map.entrySet()) {
+			if (removed >= count) {
+				break;
+			}
+
+			Node<V> node = entry.getValue();
+			if (node.accessTime <= threshold && map.remove(entry.getKey(), node)) {
+				removed ++;
+				onRemove(entry.getKey(), node.value);
+			}
+		}
+		return removed;
+	}
+
+}
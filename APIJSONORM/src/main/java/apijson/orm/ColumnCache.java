@@ -0,0 +1,120 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import apijson.NotNull;
+import apijson.StringUtil;
+
+/**每张表不隐藏的字段缓存，没有 @column 时 SELECT * 会把 _ 开头等隐藏字段也查出来，
+ * 大的 TEXT, BLOB 等字段传输并解析后再丢弃很浪费。
+ * 由 {@link AbstractSQLExecutor} 在某张表 SELECT * 时按 ResultSetMetaData 记下 {@link #isHideColumn} 以外的字段，
+ * 之后 {@link AbstractSQLConfig#getColumnString} 把这张表的 * 展开为这些字段，隐藏字段直接在 SQL 层排除。
+ * 只按表结构和字段名判断，和角色等请求内容无关，{@link AbstractSQLExecutor#isHideColumn} 仍然会对查到的每一行再判断。
+ * 默认关闭，只有全部角色都不返回 _ 开头的字段时才能开启。
+ * 新增字段在缓存过期后才会返回，删除字段后查询出错会移除缓存，也可以手动调用 {@link #clear} 或 {@link #remove}
+ * @author Lemon
+ */
+public class ColumnCache {
+
+	/**
+	 * 缓存的表最大数量，超过后淘汰最久未使用的，<= 0 则不缓存，也就不展开 *
+	 */
+	public static int MAX_CACHE_COUNT = 0;
+	/**
+	 * 缓存有效时长(毫秒)，过期后重新 SELECT * 来记录新增的字段，<= 0 则不过期
+	 */
+	public static long EXPIRE_TIME = 10*60*1000;
+
+	private static class Item {
+		final List<String> columnList;
+		final long expireTime;
+
+		Item(List<String> columnList, long expireTime) {
+			this.columnList = columnList;
+			this.expireTime = expireTime;
+		}
+	}
+
+	private static final BoundedCache<String, Item> CACHE_MAP = new BoundedCache<>(() -> MAX_CACHE_COUNT);
+
+	/**生成缓存 key，不同数据库、数据源、schema 的同名表分开缓存
+	 * @param config
+	 * @return
+	 */
+	@NotNull
+	public static String getKey(@NotNull SQLConfig config) {
+		return StringUtil.getString(config.getDatabase()) + "/" + StringUtil.getString(config.getDatasource())
+				+ "/" + StringUtil.getString(config.getSchema()) + "/" + config.getSQLTable();
+	}
+
+	/**是否为展开 * 时排除的隐藏字段，和 {@link AbstractSQLExecutor#isHideColumn} 的默认规则一致
+	 * @param column
+	 * @return
+	 */
+	public static boolean isHideColumn(@NotNull String column) {
+		return column.startsWith("_");
+	}
+
+	/**按 SELECT * 的 ResultSetMetaData 获取不隐藏的字段
+	 * @param rsmd
+	 * @return 没有隐藏字段则返回空 List
+	 * @throws SQLException
+	 */
+	@NotNull
+	public static List<String> getVisibleColumnList(@NotNull ResultSetMetaData rsmd) throws SQLException {
+		int length = rsmd.getColumnCount();
+		List<String> list = new ArrayList<>(length);
+		for (int i = 1; i <= length; i++) {
+			String column = rsmd.getColumnName(i);
+			if (isHideColumn(column) == false) {
+				list.add(column);
+			}
+		}
+		return list.size() >= length ? new ArrayList<>() : list;
+	}
+
+	/**获取表中不隐藏的字段
+	 * @param key
+	 * @return 没有缓存或已过期则返回 null；空 List 说明这张表没有隐藏字段，保持 SELECT * 即可
+	 */
+	public static List<String> get(String key) {
+		Item item = MAX_CACHE_COUNT <= 0 ? null : CACHE_MAP.get(key);
+		if (item == null) {
+			return null;
+		}
+		if (item.expireTime > 0 && item.expireTime < System.currentTimeMillis()) {
+			CACHE_MAP.remove(key, item);
+			return null;
+		}
+		return item.columnList;
+	}
+
+	/**保存表中不隐藏的字段
+	 * @param key
+	 * @param columnList 没有隐藏字段则传空 List
+	 */
+	public static void put(@NotNull String key, @NotNull List<String> columnList) {
+		if (MAX_CACHE_COUNT <= 0) {
+			return;
+		}
+		CACHE_MAP.put(key, new Item(Collections.unmodifiableList(columnList), EXPIRE_TIME <= 0 ? 0 : System.currentTimeMillis() + EXPIRE_TIME));
+	}
+
+	public static void remove(String key) {
+		CACHE_MAP.remove(key);
+	}
+
+	public static void clear() {
+		CACHE_MAP.clear();
+	}
+
+}
@@ -0,0 +1,296 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import apijson.NotNull;
+import apijson.StringUtil;
+
+/**@combine:"date> | (contactIdList<> & !(name*~ | tag&$))" 解析后的与或非+括号逻辑表达式，
+ * 只和表达式字符串本身有关，和条件值无关，所以解析及语法校验一次后缓存复用，生成 WHERE 时只需遍历 {@link #getItemList()}
+ * @author Lemon
+ */
+public class CombineExpression {
+
+	/**
+	 * 缓存的表达式最大数量，超过后淘汰最久未使用的，<= 0 则不缓存
+	 */
+	public static int MAX_CACHE_COUNT = 1000;
+
+	private static final BoundedCache<String, CombineExpression> CACHE_MAP = new BoundedCache<>(() -> MAX_CACHE_COUNT);
+
+	public static final int TYPE_KEY = 0;  // 条件 key
+	public static final int TYPE_AND = 1;  // &
+	public static final int TYPE_OR = 2;  // |
+	public static final int TYPE_NOT = 3;  // !(
+	public static final int TYPE_LEFT = 4;  // (
+	public static final int TYPE_RIGHT = 5;  // )
+
+	/**表达式中的一项，条件 key 或 逻辑运算符 或 括号
+	 */
+	public static class Item {
+		private final int type;
+		private final String key;
+		private final boolean not;
+
+		public Item(int type, String key, boolean not) {
+			this.type = type;
+			this.key = key;
+			this.not = not;
+		}
+
+		public int getType() {
+			return type;
+		}
+		public String getKey() {
+			return key;
+		}
+		/**条件 key 前是否有 ! ，例如 !name*~
+		 * @return
+		 */
+		public boolean isNot() {
+			return not;
+		}
+	}
+
+
+	private final String combine;
+	private final List<Item> itemList;
+	private final Map<String, Integer> keyCountMap;
+	private final int keyCount;
+	private final int depth;
+
+	private CombineExpression(String combine, List<Item> itemList, Map<String, Integer> keyCountMap, int keyCount, int depth) {
+		this.combine = combine;
+		this.itemList = Collections.unmodifiableList(itemList);
+		this.keyCountMap = Collections.unmodifiableMap(keyCountMap);
+		this.keyCount = keyCount;
+		this.depth = depth;
+	}
+
+	public String getCombine() {
+		return combine;
+	}
+	/**按顺序排列的 条件 key、逻辑运算符、括号
+	 * @return
+	 */
+	@NotNull
+	public List<Item> getItemList() {
+		return itemList;
+	}
+	/**每个条件 key 被引用的次数
+	 * @return
+	 */
+	@NotNull
+	public Map<String, Integer> getKeyCountMap() {
+		return keyCountMap;
+	}
+	/**条件 key 总数，同一个 key 引用多次则计算多次
+	 * @return
+	 */
+	public int getKeyCount() {
+		return keyCount;
+	}
+	/**括号 (()) 最大嵌套层级
+	 * @return
+	 */
+	public int getDepth() {
+		return depth;
+	}
+	public boolean isEmpty() {
+		return itemList.isEmpty();
+	}
+
+
+	/**从缓存获取，没有则解析后放入缓存，语法错误的不缓存
+	 * @param combine
+	 * @param errPrefix 语法错误时异常信息的前缀
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	@NotNull
+	public static CombineExpression parse(String combine, String errPrefix) throws IllegalArgumentException {
+		String s = StringUtil.getString(combine);
+		CombineExpression expr = MAX_CACHE_COUNT <= 0 ? null : CACHE_MAP.get(s);
+		if (expr == null) {
+			expr = compile(s, errPrefix);
+			if (MAX_CACHE_COUNT > 0) {
+				CACHE_MAP.put(s, expr);
+			}
+		}
+		return expr;
+	}
+
+	/**清空缓存
+	 */
+	public static void clearCache() {
+		CACHE_MAP.clear();
+	}
+
+	/**解析 @combine 表达式并校验语法，不校验 MAX_COMBINE_DEPTH 等和配置有关的限制
+	 * @param combine
+	 * @param errPrefix 语法错误时异常信息的前缀
+	 * @return
+	 * @throws IllegalArgumentException
+	 */
+	@NotNull
+	public static CombineExpression compile(String combine, String errPrefix) throws IllegalArgumentException {
+		String s = StringUtil.getString(combine);
+		if (s.startsWith(" ") || s.endsWith(" ") ) {
+			throw new IllegalArgumentException(errPrefix + " 中字符 '" + s
+					+ "' 不合法！不允许首尾有空格，也不允许连续空格！空格不能多也不能少！"
+					+ "逻辑连接符 & | 左右必须各一个相邻空格！左括号 ( 右边和右括号 ) 左边都不允许有相邻空格！");
+		}
+
+		List<Item> itemList = new ArrayList<>();
+		Map<String, Integer> keyCountMap = new LinkedHashMap<>();
+		int keyCount = 0;
+		int maxDepth = 0;
+
+		int n = s.length();
+		if (n <= 0) {
+			return new CombineExpression(s, itemList, keyCountMap, keyCount, maxDepth);
+		}
+
+		int depth = 0;
+		int i = 0;
+
+		char lastLogic = 0;
+		char last = 0;
+		boolean first = true;
+		boolean isNot = false;
+
+		String key = "";
+		while (i <= n) {  // "date> | (contactIdList<> & (name*~ | tag&$))"
+			boolean isOver = i >= n;
+			char c = isOver ? 0 : s.charAt(i);
+			boolean isBlankOrRightParenthesis = c == ' ' || c == ')';
+			if (isOver || isBlankOrRightParenthesis) {
+				boolean isEmpty = StringUtil.isEmpty(key, true);
+				if (isEmpty && last != ')') {
+					throw new IllegalArgumentException(errPrefix + " 中字符 '" + (isOver ? s : s.substring(i))
+							+ "' 不合法！" + (c == ' ' ? "空格 ' ' " : "右括号 ')'") + " 左边缺少条件 key ！逻辑连接符 & | 左右必须各一个相邻空格！"
+							+ "空格不能多也不能少！不允许首尾有空格，也不允许连续空格！左括号 ( 的右边 和 右括号 ) 的左边 都不允许有相邻空格！");
+				}
+
+				if (isEmpty == false) {
+					if (first == false && lastLogic <= 0) {
+						throw new IllegalArgumentException(errPrefix + " 中字符 "
+								+ "'" + s.substring(i - key.length() - (isOver ? 1 : 0)) + "' 不合法！左边缺少 & | 其中一个逻辑连接符！");
+					}
+
+					keyCount ++;
+					Integer count = keyCountMap.get(key);
+					keyCountMap.put(key, count == null ? 1 : count + 1);
+
+					itemList.add(new Item(TYPE_KEY, key, isNot));
+					isNot = false;
+					first = false;
+				}
+
+				key = "";
+				lastLogic = 0;
+
+				if (isOver) {
+					break;
+				}
+			}
+
+			if (c == ' ') {
+			}
+			else if (c == '&' || c == '|') {
+				if (last == ' ') {
+					if (i >= n - 1 || s.charAt(i + 1) != ' ') {
+						throw new IllegalArgumentException(errPrefix + " 中字符 '" + (i >= n - 1 ? s : s.substring(0, i + 1))
+								+ "' 不合法！逻辑连接符 " + c + " 右边缺少一个空格 ！逻辑连接符 & | 左右必须各一个相邻空格！空格不能多也不能少！"
+								+ "不允许首尾有空格，也不允许连续空格！左括号 ( 的右边 和 右括号 ) 的左边 都不允许有相邻空格！");
+					}
+
+					itemList.add(new Item(c == '&' ? TYPE_AND : TYPE_OR, null, false));
+					lastLogic = c;
+					i ++;
+				}
+				else {
+					key += c;
+				}
+			}
+			else if (c == '!') {
+				last = i <= 0 ? 0 : s.charAt(i - 1);  // & | 后面跳过了空格
+
+				char next = i >= n - 1 ? 0 : s.charAt(i + 1);
+				if (last == ' ' || last == '(') {
+					if (next == ' ') {
+						throw new IllegalArgumentException(errPrefix + " 中字符 '" + s.substring(0, i + 1)
+						+ "' 不合法！非逻辑符 '!' 右边多了一个空格 ' ' ！非逻辑符 '!' 右边不允许任何相邻空格 ' '，也不允许 ')' '&' '|' 中任何一个！");
+					}
+					if (next == ')' || next == '&' || next == '!') {
+						throw new IllegalArgumentException(errPrefix + " 中字符 '" + s.substring(0, i + 1)
+						+ "' 不合法！非逻辑符 '!' 右边多了一个字符 '" + next + "' ！非逻辑符 '!' 右边不允许任何相邻空格 ' '，也不允许 ')' '&' '|' 中任何一个！");
+					}
+					if (i > 0 && lastLogic <= 0 && last != '(') {
+						throw new IllegalArgumentException(errPrefix + " 中字符 '" + s.substring(i)
+						+ "' 不合法！左边缺少 & | 逻辑连接符！逻辑连接符 & | 左右必须各一个相邻空格！空格不能多也不能少！"
+						+ "不允许首尾有空格，也不允许连续空格！左括号 ( 的右边 和 右括号 ) 的左边 都不允许有相邻空格！");
+					}
+				}
+
+				if (next == '(') {
+					itemList.add(new Item(TYPE_NOT, null, false));
+					lastLogic = c;
+				}
+				else if (last <= 0 || last == ' ' || last == '(') {
+					isNot = true;
+				}
+				else {
+					key += c;
+				}
+			}
+			else if (c == '(') {
+				if (key.isEmpty() == false || (i > 0 && lastLogic <= 0 && last != '(')) {
+					throw new IllegalArgumentException(errPrefix + " 中字符 '" + s.substring(i)
+					+ "' 不合法！左边缺少 & | 逻辑连接符！逻辑连接符 & | 左右必须各一个相邻空格！空格不能多也不能少！"
+					+ "不允许首尾有空格，也不允许连续空格！左括号 ( 的右边 和 右括号 ) 的左边 都不允许有相邻空格！");
+				}
+
+				depth ++;
+				maxDepth = Math.max(maxDepth, depth);
+
+				itemList.add(new Item(TYPE_LEFT, null, false));
+				lastLogic = 0;
+				first = true;
+			}
+			else if (c == ')') {
+				depth --;
+				if (depth < 0) {
+					throw new IllegalArgumentException(errPrefix + " 中字符 '" + s.substring(0, i + 1)
+					+ "' 不合法！左括号 ( 比 右括号 ) 少！数量必须相等从而完整闭合 (...) ！");
+				}
+
+				itemList.add(new Item(TYPE_RIGHT, null, false));
+				lastLogic = 0;
+			}
+			else {
+				key += c;
+			}
+
+			last = c;
+			i ++;
+		}
+
+		if (depth != 0) {
+			throw new IllegalArgumentException(errPrefix + " 中字符 '" + s
+					+ "' 不合法！左括号 ( 比 右括号 ) 多！数量必须相等从而完整闭合 (...) ！");
+		}
+
+		return new CombineExpression(s, itemList, keyCountMap, keyCount, maxDepth);
+	}
+
+}
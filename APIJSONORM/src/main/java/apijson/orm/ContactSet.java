@@ -0,0 +1,125 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import apijson.NotNull;
+
+/**访问者联系人 id 集合，用 long 数组开放寻址，不装箱，用于 {@link AbstractVerifier#verifyUseRole} 中 CONTACT, CIRCLE 角色的校验，
+ * 不用每个对象都复制一遍 contactIdList，也不用每个请求的 id 都拼接字符串再装箱后逐个比较。
+ * 由 {@link AbstractVerifier#getContact} 在每个请求内第一次用到时按 Visitor 当时的 contactIdList 生成，
+ * 只在这个请求内复用，不跨请求缓存，因为 contactIdList 可能被原地修改，无法可靠判断是否变化
+ * @author Lemon
+ */
+public class ContactSet {
+
+	/**按 contactIdList 生成联系人集合
+	 * @param contactIdList
+	 * @return
+	 */
+	@NotNull
+	public static ContactSet of(List<?> contactIdList) {
+		return new ContactSet(contactIdList);
+	}
+
+
+	private final List<Object> idList;
+
+	private final long[] table;
+	private final int mask;
+	private final boolean containZero;
+
+	public ContactSet(List<?> contactIdList) {
+		int size = contactIdList == null ? 0 : contactIdList.size();
+
+		List<Object> list = new ArrayList<>(size);
+		int capacity = Integer.highestOneBit(Math.max(2, size*2 - 1)) << 1;
+		long[] table = new long[capacity];
+		int mask = capacity - 1;
+		boolean containZero = false;
+
+		if (contactIdList != null) {
+			for (Object id : contactIdList) {
+				if (id != null) {
+					list.add(id);
+				}
+
+				Long l = toLong(id);
+				if (l == null) {
+					continue;
+				}
+
+				long v = l;
+				if (v == 0) {
+					containZero = true;
+					continue;
+				}
+
+				int i = hash(v) & mask;
+				while (table[i] != 0 && table[i] != v) {
+					i = (i + 1) & mask;
+				}
+				table[i] = v;
+			}
+		}
+
+		this.idList = Collections.unmodifiableList(list);
+		this.table = table;
+		this.mask = mask;
+		this.containZero = containZero;
+	}
+
+	/**联系人 id 列表，用于生成 userId{}:[] 条件，不可修改
+	 * @return
+	 */
+	@NotNull
+	public List<Object> getIdList() {
+		return idList;
+	}
+
+	public boolean contains(long id) {
+		if (id == 0) {
+			return containZero;
+		}
+
+		int i = hash(id) & mask;
+		long v;
+		while ((v = table[i]) != 0) {
+			if (v == id) {
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	private static int hash(long v) {
+		long h = v * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**和原来的 Long.valueOf("" + id) 一致，只是数值类型不用拼接字符串
+	 * @param id
+	 * @return 不是整数则返回 null
+	 */
+	public static Long toLong(Object id) {
+		if (id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte) {
+			return ((Number) id).longValue();
+		}
+		if (id == null) {
+			return null;
+		}
+		try {
+			return Long.valueOf(id.toString());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import apijson.JSONObject;
+import apijson.NotNull;
+import apijson.StringUtil;
+
+/**对象内每个 key 的解析方式，由 {@link RequestPlan} 按请求结构编译并缓存，
+ * {@link AbstractObjectParser#parse} 直接按 key 取，不用每次都对 key 做字符串和正则判断。
+ * 只编译只和 key 有关的部分，值的类型仍然在解析时按当前的值判断
+ * @author Lemon
+ */
+public class ObjectPlan {
+
+	/**
+	 * @key, key@ 直接 onParse
+	 */
+	public static final int FLAG_PARSE = 1;
+	/**
+	 * key<>:{} 值为 JSONObject 时直接 onParse
+	 */
+	public static final int FLAG_CONTAIN = 2;
+	/**
+	 * Table[]:[] 值为 JSONArray 时批量新增或修改
+	 */
+	public static final int FLAG_TABLE_ARRAY = 4;
+	/**
+	 * key+:[], key-:[] 去掉 +, - 后是字段名，PUT 时值为 JSONArray 则增减数组元素
+	 */
+	public static final int FLAG_NAME = 8;
+
+	/**获取 key 的解析方式
+	 * @param key
+	 * @return FLAG_ 的组合
+	 */
+	public static int getFlags(@NotNull String key) {
+		int flags = 0;
+		if (key.startsWith("@") || key.endsWith("@")) {
+			flags |= FLAG_PARSE;
+		}
+		if (key.endsWith("<>")) {
+			flags |= FLAG_CONTAIN;
+		}
+		if (JSONObject.isTableArray(key)) {
+			flags |= FLAG_TABLE_ARRAY;
+		}
+		if (StringUtil.isName(key.replaceFirst("[+-]$", ""))) {
+			flags |= FLAG_NAME;
+		}
+		return flags;
+	}
+
+
+	private final Map<String, Integer> flagsMap;
+
+	public ObjectPlan(@NotNull Iterable<String> keys) {
+		Map<String, Integer> map = new HashMap<>();
+		for (String key : keys) {
+			if (key != null) {
+				map.put(key, getFlags(key));
+			}
+		}
+		this.flagsMap = Collections.unmodifiableMap(map);
+	}
+
+	/**获取编译好的解析方式，编译后才加入的 key 则重新判断
+	 * @param key
+	 * @return
+	 */
+	public int get(@NotNull String key) {
+		Integer flags = flagsMap.get(key);
+		return flags != null ? flags : getFlags(key);
+	}
+
+}
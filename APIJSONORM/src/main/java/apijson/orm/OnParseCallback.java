@@ -47,6 +47,18 @@ public abstract class OnParseCallback {
 		return robj;
 	}
 
+	/**带上编译好的子规则，默认忽略 trule 并调用 {@link #onParseJSONObject(String, JSONObject, JSONObject)}
+	 * @param key
+	 * @param tobj
+	 * @param trule tobj 编译后的 {@link StructureRule}
+	 * @param robj
+	 * @return
+	 * @throws Exception
+	 */
+	protected JSONObject onParseJSONObject(String key, JSONObject tobj, StructureRule trule, JSONObject robj) throws Exception {
+		return onParseJSONObject(key, tobj, robj);
+	}
+
 	/**
 	 * @param key
 	 * @param tarray
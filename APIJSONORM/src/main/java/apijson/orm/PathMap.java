@@ -0,0 +1,159 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**按 / 分隔的路径为 key 的 Map，同时维护一棵按路径片段组织的前缀树，
+ * 用于 {@link AbstractParser#getValueByPath} 查找被引用路径的最长父路径，不用遍历全部 key 并拼接字符串。
+ * 只通过 put, putAll, putIfAbsent, remove, removeTree, clear 修改才会同步前缀树
+ * @author Lemon
+ */
+public class PathMap<V> extends HashMap<String, V> {
+	private static final long serialVersionUID = 1L;
+
+	private static class Node {
+		Map<String, Node> childMap;
+		String path;  // 不为 null 说明这个节点对应的路径有值
+	}
+
+	private Node root = new Node();
+
+	public PathMap() {
+		super();
+	}
+	public PathMap(int initialCapacity) {
+		super(initialCapacity);
+	}
+
+	@Override
+	public V put(String key, V value) {
+		V old = super.put(key, value);
+		if (key != null) {
+			getNode(key, true).path = key;
+		}
+		return old;
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends V> m) {
+		for (Entry<? extends String, ? extends V> entry : m.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public V putIfAbsent(String key, V value) {
+		V old = get(key);
+		return old != null ? old : put(key, value);
+	}
+
+	@Override
+	public V remove(Object key) {
+		if (key instanceof String && containsKey(key)) {
+			Node node = getNode((String) key, false);
+			if (node != null) {
+				node.path = null;
+			}
+		}
+		return super.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		root = new Node();
+	}
+
+	/**移除 path 及其下全部子路径的值，例如 []/0 会移除 []/0, []/0/User, []/0/User/id 等
+	 * @param path
+	 * @return 移除的数量
+	 */
+	public int removeTree(String path) {
+		Node node = path == null ? null : getNode(path, false);
+		if (node == null) {
+			return 0;
+		}
+
+		int count = removeTree(node);
+
+		int last = path.lastIndexOf('/');
+		Node parent = last < 0 ? root : getNode(path.substring(0, last), false);
+		if (parent != null && parent.childMap != null) {
+			parent.childMap.remove(path.substring(last + 1));
+		}
+		return count;
+	}
+
+	private int removeTree(Node node) {
+		int count = 0;
+		if (node.path != null) {
+			super.remove(node.path);
+			node.path = null;
+			count ++;
+		}
+		if (node.childMap != null) {
+			for (Node child : node.childMap.values()) {
+				count += removeTree(child);
+			}
+			node.childMap = null;
+		}
+		return count;
+	}
+
+	/**获取已存入的路径中 path 的最长父路径，例如存了 [] 和 []/0/User，则 []/0/User/id 返回 []/0/User
+	 * @param path
+	 * @return 不存在则返回 null
+	 */
+	public String getParentPath(String path) {
+		if (path == null) {
+			return null;
+		}
+
+		String parentPath = null;
+		Node node = root;
+		int start = 0;
+		int end;
+		while ((end = path.indexOf('/', start)) >= 0) {
+			node = node.childMap == null ? null : node.childMap.get(path.substring(start, end));
+			if (node == null) {
+				break;
+			}
+			if (node.path != null) {
+				parentPath = node.path;
+			}
+			start = end + 1;
+		}
+		return parentPath;
+	}
+
+	private Node getNode(String path, boolean create) {
+		Node node = root;
+		int start = 0;
+		while (node != null) {
+			int end = path.indexOf('/', start);
+			String name = end < 0 ? path.substring(start) : path.substring(start, end);
+
+			Node child = node.childMap == null ? null : node.childMap.get(name);
+			if (child == null && create) {
+				if (node.childMap == null) {
+					node.childMap = new HashMap<>();
+				}
+				child = new Node();
+				node.childMap.put(name, child);
+			}
+			node = child;
+
+			if (end < 0) {
+				break;
+			}
+			start = end + 1;
+		}
+		return node;
+	}
+
+}
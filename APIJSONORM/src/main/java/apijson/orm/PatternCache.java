@@ -0,0 +1,131 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.util.regex.Pattern;
+
+import apijson.NotNull;
+
+/**Request 表 VERIFY 中 key~ 正则的缓存，不在 {@link AbstractVerifier#COMPILE_MAP} 中的不用每次请求都 Pattern.compile，
+ * {@link StructureRule} 编译时就提前放进来。
+ * 匹配时限制读取字符的步数和时长，避免 (a+)+$ 这类回溯爆炸的正则长时间占满 CPU
+ * @author Lemon
+ */
+public class PatternCache {
+
+	/**
+	 * 缓存的正则最大数量，超过后淘汰最久未使用的，<= 0 则不缓存
+	 */
+	public static int MAX_CACHE_COUNT = 1000;
+	/**
+	 * 单次匹配最多读取多少次字符，回溯越多读取越多，<= 0 则不限制
+	 */
+	public static long MAX_MATCH_STEP = 1000000;
+	/**
+	 * 单次匹配最长时长(毫秒)，<= 0 则不限制
+	 */
+	public static long MAX_MATCH_TIME = 100;
+
+	private static final BoundedCache<String, Pattern> CACHE_MAP = new BoundedCache<>(() -> MAX_CACHE_COUNT);
+
+	/**获取正则，优先用 {@link AbstractVerifier#COMPILE_MAP} 中的别名
+	 * @param regex
+	 * @return
+	 * @throws java.util.regex.PatternSyntaxException
+	 */
+	@NotNull
+	public static Pattern get(@NotNull String regex) {
+		Pattern pattern = AbstractVerifier.COMPILE_MAP.get(regex);
+		if (pattern != null) {
+			return pattern;
+		}
+
+		pattern = MAX_CACHE_COUNT <= 0 ? null : CACHE_MAP.get(regex);
+		if (pattern == null) {
+			pattern = Pattern.compile(regex);
+			if (MAX_CACHE_COUNT > 0) {
+				CACHE_MAP.put(regex, pattern);
+			}
+		}
+		return pattern;
+	}
+
+	public static void clear() {
+		CACHE_MAP.clear();
+	}
+
+	/**限制步数和时长的完整匹配
+	 * @param pattern
+	 * @param input
+	 * @return
+	 * @throws IllegalArgumentException 超出 {@link #MAX_MATCH_STEP} 或 {@link #MAX_MATCH_TIME}
+	 */
+	public static boolean matches(@NotNull Pattern pattern, @NotNull String input) throws IllegalArgumentException {
+		if (MAX_MATCH_STEP <= 0 && MAX_MATCH_TIME <= 0) {
+			return pattern.matcher(input).matches();
+		}
+
+		try {
+			return pattern.matcher(new GuardedCharSequence(input, MAX_MATCH_STEP
+					, MAX_MATCH_TIME <= 0 ? 0 : System.nanoTime() + MAX_MATCH_TIME*1000000)).matches();
+		}
+		catch (MatchLimitException e) {
+			throw new IllegalArgumentException("正则 " + pattern.pattern() + " 匹配超出" + e.getMessage()
+					+ " 上限，请简化 Request 表 VERIFY 中的正则或缩短传参！");
+		}
+	}
+
+	private static class MatchLimitException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		MatchLimitException(String msg) {
+			super(msg, null, false, false);
+		}
+	}
+
+	/**每次读取字符都计数，回溯爆炸时会大量重复读取
+	 */
+	private static class GuardedCharSequence implements CharSequence {
+		private final String value;
+		private final long maxStep;
+		private final long deadline;
+		private long step;
+
+		GuardedCharSequence(String value, long maxStep, long deadline) {
+			this.value = value;
+			this.maxStep = maxStep;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public char charAt(int index) {
+			step ++;
+			if (maxStep > 0 && step > maxStep) {
+				throw new MatchLimitException(" " + maxStep + " 步");
+			}
+			if (deadline > 0 && (step & 0x3FF) == 0 && System.nanoTime() > deadline) {
+				throw new MatchLimitException(" " + MAX_MATCH_TIME + " 毫秒");
+			}
+			return value.charAt(index);
+		}
+
+		@Override
+		public int length() {
+			return value.length();
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return value.subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return value;
+		}
+	}
+
+}
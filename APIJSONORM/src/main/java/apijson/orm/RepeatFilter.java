@@ -0,0 +1,519 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import apijson.Log;
+import apijson.NotNull;
+import apijson.RequestMethod;
+
+/**UNIQUE 校验用的布隆过滤器，{@link AbstractVerifier#verifyRepeat} 前先查，肯定不存在的值直接跳过 HEAD 查询，可能存在的才查数据库。
+ * 需要通过 {@link #register} 按 表-字段 开启，并在启动时调用 {@link #load} 从数据库读取已有的值，
+ * 之后 {@link AbstractSQLExecutor} 执行成功的 POST, PUT 会自动加入新值，"name+" 等无法算出新值的修改及原始 SQL 会让过滤器失效，需要重新 load。
+ * 事务内的写操作在提交后会再同步一次，避免在 load 清空前执行、读取全部值后才提交的新值被漏掉。
+ * 只能用于 单实例 或 其它实例/外部写入都同步 {@link #put} 的场景，且不区分数据源和库，
+ * 比较前会 trim 尾部空格并按 ignoreCase 转小写，重音不敏感等其它排序规则的字段不要开启，数据库唯一索引仍然是最终保障
+ * @author Lemon
+ */
+public class RepeatFilter {
+	private static final String TAG = "RepeatFilter";
+
+	/**
+	 * 默认误判率
+	 */
+	public static double DEFAULT_FPP = 0.01;
+	/**
+	 * 每个过滤器最大内存(字节)，按预计数量和误判率算出来超过则用这个，误判率会变高
+	 */
+	public static long MAX_MEMORY = 64L << 20;
+	/**
+	 * load 时每次从数据库取多少行，MySQL 固定用 Integer.MIN_VALUE 逐行读取，避免把整列都读到内存
+	 */
+	public static int LOAD_FETCH_SIZE = 1000;
+
+	/**
+	 * 待提交的写操作中让过滤器失效的标记
+	 */
+	private static final Object INVALIDATE = new Object();
+
+	private static final Map<String, RepeatFilter> FILTER_MAP = new ConcurrentHashMap<>();
+	private static final Pattern INTEGER_PATTERN = Pattern.compile("^-?(0|[1-9][0-9]*)$");
+
+	public static String getKey(String table, String column) {
+		return table + "." + column;
+	}
+
+	/**开启 table.column 的过滤器，需要再调用 {@link #load} 后才生效
+	 * @param table
+	 * @param column
+	 * @param expectedCount 预计数量，超出后误判率会变高
+	 * @param fpp 误判率，<= 0 或 >= 1 则用 {@link #DEFAULT_FPP}
+	 * @param ignoreCase 字段是否大小写不敏感，例如 MySQL 默认的 _ci 排序规则
+	 * @return
+	 */
+	public static RepeatFilter register(@NotNull String table, @NotNull String column, long expectedCount, double fpp, boolean ignoreCase) {
+		RepeatFilter filter = new RepeatFilter(table, column, expectedCount, fpp, ignoreCase);
+		FILTER_MAP.put(getKey(table, column), filter);
+		return filter;
+	}
+
+	public static RepeatFilter remove(String table, String column) {
+		return FILTER_MAP.remove(getKey(table, column));
+	}
+
+	public static void clear() {
+		FILTER_MAP.clear();
+	}
+
+	/**
+	 * @param table
+	 * @param column
+	 * @return 没开启则返回 null
+	 */
+	public static RepeatFilter get(String table, String column) {
+		return FILTER_MAP.isEmpty() || table == null || column == null ? null : FILTER_MAP.get(getKey(table, column));
+	}
+
+	/**从数据库读取 table.column 全部已有的值，逐行加入，不缓存结果
+	 * @param table
+	 * @param column
+	 * @param creator
+	 * @throws Exception
+	 */
+	public static void load(@NotNull String table, @NotNull String column, @NotNull SQLCreator creator) throws Exception {
+		RepeatFilter filter = get(table, column);
+		if (filter == null) {
+			throw new IllegalArgumentException(getKey(table, column) + " 未开启过滤器，请先调用 register ！");
+		}
+
+		long count = 0;
+		SQLExecutor executor = creator.createSQLExecutor();
+		try {
+			// 先查字段类型，数值和字符串的比较规则不同
+			SQLConfig config = creator.createSQLConfig().setMethod(RequestMethod.GET).setCount(1).setPage(0);
+			config.setTable(table);
+			config.setColumn(Arrays.asList(column));
+			try (ResultSet rs = executor.executeQuery(config)) {
+				filter.setNumeric(isNumeric(rs.getMetaData().getColumnType(1), table, column));
+			}
+
+			// 必须在查询前清空，避免清掉查询后才提交的新值
+			long version = filter.clearBits();
+
+			config = creator.createSQLConfig().setMethod(RequestMethod.GET).setCount(0).setPage(0);
+			config.setTable(table);
+			config.setColumn(Arrays.asList(column));
+			config.setPrepared(false);
+			String sql = config.getSQL(false);
+
+			// 流式读取，MySQL 只有 TYPE_FORWARD_ONLY, CONCUR_READ_ONLY 且 fetchSize 为 Integer.MIN_VALUE 才生效，PostgreSQL 需要关闭自动提交
+			Connection conn = executor.getConnection(config);
+			boolean autoCommit = conn.getAutoCommit();
+			if (autoCommit && config.isPostgreSQL()) {
+				conn.setAutoCommit(false);
+			}
+			try (Statement stt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				stt.setFetchSize(config.isMySQL() ? Integer.MIN_VALUE : Math.max(0, LOAD_FETCH_SIZE));
+				try (ResultSet rs = stt.executeQuery(sql)) {
+					while (rs.next()) {
+						filter.add(rs.getObject(1));
+						count ++;
+					}
+				}
+			}
+			finally {
+				if (autoCommit && conn.getAutoCommit() == false) {
+					conn.commit();
+					conn.setAutoCommit(true);
+				}
+			}
+
+			synchronized (filter) {
+				filter.ready = filter.version == version;  // load 期间失效了则不启用
+			}
+		} finally {
+			executor.close();
+		}
+
+		Log.i(TAG, "load  " + getKey(table, column) + " count = " + count + "; ready = " + filter.ready);
+	}
+
+	private static boolean isNumeric(int type, String table, String column) {
+		switch (type) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+			return true;
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGNVARCHAR:
+			return false;
+		default:
+			throw new UnsupportedOperationException(getKey(table, column) + " 的类型 " + type + " 不支持过滤器，只支持整数和字符串！");
+		}
+	}
+
+	/**外部写入后同步新值
+	 * @param table
+	 * @param column
+	 * @param value
+	 */
+	public static void put(String table, String column, Object value) {
+		RepeatFilter filter = get(table, column);
+		if (filter != null) {
+			filter.add(value);
+		}
+	}
+
+	/**执行成功的写操作，POST, PUT 加入新值，无法确定新值的让对应过滤器失效
+	 * @param config
+	 * @param isRaw 是否为原始 SQL，不知道改了哪些字段
+	 */
+	public static void onUpdate(@NotNull SQLConfig config, boolean isRaw) {
+		onUpdate(config, isRaw, null);
+	}
+	/**执行成功的写操作，POST, PUT 加入新值，无法确定新值的让对应过滤器失效
+	 * @param config
+	 * @param isRaw 是否为原始 SQL，不知道改了哪些字段
+	 * @param pendingMap 在事务内则传入，记下加入的值及失效，提交后通过 {@link #onCommit} 再同步一次
+	 */
+	public static void onUpdate(@NotNull SQLConfig config, boolean isRaw, Map<RepeatFilter, List<Object>> pendingMap) {
+		if (FILTER_MAP.isEmpty()) {
+			return;
+		}
+
+		String table = config.getTable();
+		if (isRaw) {
+			for (RepeatFilter filter : FILTER_MAP.values()) {
+				if (filter.table.equals(table)) {
+					apply(filter, INVALIDATE, pendingMap);
+				}
+			}
+			return;
+		}
+
+		RequestMethod method = config.getMethod();
+		if (method == RequestMethod.POST) {
+			List<String> columns = config.getColumn();
+			List<List<Object>> values = config.getValues();
+			if (columns == null || values == null) {
+				return;
+			}
+			for (int i = 0; i < columns.size(); i++) {
+				RepeatFilter filter = get(table, columns.get(i));
+				if (filter == null) {
+					continue;
+				}
+				for (List<Object> vs : values) {
+					apply(filter, vs == null || vs.size() <= i ? null : vs.get(i), pendingMap);
+				}
+			}
+		}
+		else if (method == RequestMethod.PUT) {
+			Map<String, Object> content = config.getContent();
+			if (content == null) {
+				return;
+			}
+			for (RepeatFilter filter : FILTER_MAP.values()) {
+				if (filter.table.equals(table) == false) {
+					continue;
+				}
+				for (Map.Entry<String, Object> entry : content.entrySet()) {
+					String key = entry.getKey();
+					if (filter.column.equals(key)) {
+						apply(filter, entry.getValue(), pendingMap);
+					}
+					else if (key != null && key.startsWith(filter.column) && key.length() > filter.column.length()
+							&& Character.isJavaIdentifierPart(key.charAt(filter.column.length())) == false) {  // "name+": "a" 等
+						apply(filter, INVALIDATE, pendingMap);
+					}
+				}
+			}
+		}
+	}
+
+	private static void apply(@NotNull RepeatFilter filter, Object value, Map<RepeatFilter, List<Object>> pendingMap) {
+		if (value == INVALIDATE) {
+			filter.invalidate();
+		}
+		else if (value != null) {
+			filter.add(value);
+		}
+		else {
+			return;
+		}
+
+		if (pendingMap != null) {
+			List<Object> list = pendingMap.get(filter);
+			if (list == null) {
+				list = new ArrayList<>();
+				pendingMap.put(filter, list);
+			}
+			list.add(value);
+		}
+	}
+
+	/**事务提交后再同步一次 {@link #onUpdate} 记下的值及失效，
+	 * 在 load 清空前执行、读取全部值后才提交的写操作，执行时加入的值已被清空，读取时又还没提交，只能在这里补上
+	 * @param pendingMap 同步后会清空
+	 */
+	public static void onCommit(Map<RepeatFilter, List<Object>> pendingMap) {
+		if (pendingMap == null || pendingMap.isEmpty()) {
+			return;
+		}
+
+		for (Map.Entry<RepeatFilter, List<Object>> entry : pendingMap.entrySet()) {
+			RepeatFilter filter = entry.getKey();
+			for (Object value : entry.getValue()) {
+				if (value == INVALIDATE) {
+					filter.invalidate();
+				}
+				else {
+					filter.add(value);
+				}
+			}
+		}
+		pendingMap.clear();
+	}
+
+
+	private final String table;
+	private final String column;
+	private final boolean ignoreCase;
+	private final AtomicLongArray bits;
+	private final long bitCount;
+	private final int hashCount;
+
+	private volatile Boolean numeric;
+	private volatile boolean ready;
+	private volatile long version;
+	private final AtomicLong addCount = new AtomicLong();
+	private final AtomicLong checkCount = new AtomicLong();
+	private final AtomicLong skipCount = new AtomicLong();
+	private final AtomicLong falsePositiveCount = new AtomicLong();
+
+	public RepeatFilter(@NotNull String table, @NotNull String column, long expectedCount, double fpp, boolean ignoreCase) {
+		this.table = table;
+		this.column = column;
+		this.ignoreCase = ignoreCase;
+
+		double p = fpp <= 0 || fpp >= 1 ? DEFAULT_FPP : fpp;
+		long n = Math.max(1, expectedCount);
+		long m = (long) Math.ceil(-n*Math.log(p)/(Math.log(2)*Math.log(2)));
+		m = Math.max(64, Math.min(m, Math.max(64, MAX_MEMORY*8)));
+		m = Math.min(m, (long) Integer.MAX_VALUE*64);
+
+		int words = (int) ((m + 63)/64);
+		this.bits = new AtomicLongArray(words);
+		this.bitCount = words*64L;
+		this.hashCount = Math.max(1, (int) Math.round(1.0*bitCount/n*Math.log(2)));
+	}
+
+	public String getTable() {
+		return table;
+	}
+	public String getColumn() {
+		return column;
+	}
+	/**
+	 * @return 已 load 且没有失效
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+	public long getMemory() {
+		return bitCount/8;
+	}
+	public long getAddCount() {
+		return addCount.get();
+	}
+	public long getCheckCount() {
+		return checkCount.get();
+	}
+	/**
+	 * @return 肯定不存在而跳过的查询数
+	 */
+	public long getSkipCount() {
+		return skipCount.get();
+	}
+	/**
+	 * @return 可能存在但查询后不存在的数量
+	 */
+	public long getFalsePositiveCount() {
+		return falsePositiveCount.get();
+	}
+
+	/**失效后 {@link #mightContain} 都返回 true，直到重新 {@link #load}
+	 */
+	public synchronized void invalidate() {
+		version ++;
+		if (ready) {
+			ready = false;
+			Log.w(TAG, "invalidate  " + getKey(table, column) + " 需要重新 load ！");
+		}
+	}
+
+	private void setNumeric(boolean numeric) {
+		this.numeric = numeric;
+	}
+
+	private synchronized long clearBits() {
+		ready = false;
+		for (int i = 0; i < bits.length(); i++) {
+			bits.set(i, 0);
+		}
+		addCount.set(0);
+		return ++ version;
+	}
+
+	/**加入新值，不能确定数据库中实际存的值的会让过滤器失效
+	 * @param value
+	 */
+	public void add(Object value) {
+		if (value == null) {  // NULL 不参与唯一约束
+			return;
+		}
+		byte[] bs = normalize(value, false);
+		if (bs == null) {
+			invalidate();
+			return;
+		}
+
+		long h1 = hash(bs, 0);
+		long h2 = hash(bs, h1) | 1;
+		for (int i = 0; i < hashCount; i++) {
+			long b = Long.remainderUnsigned(h1 + i*h2, bitCount);
+			int index = (int) (b >>> 6);
+			long mask = 1L << b;
+			long old;
+			while (((old = bits.get(index)) & mask) == 0 && bits.compareAndSet(index, old, old | mask) == false) {
+			}
+		}
+		addCount.incrementAndGet();
+	}
+
+	/**
+	 * @param value
+	 * @return false 则肯定不存在，没 load、已失效或不支持的类型都返回 true
+	 */
+	public boolean mightContain(Object value) {
+		if (ready == false) {
+			return true;
+		}
+		byte[] bs = normalize(value, true);
+		if (bs == null) {
+			return true;
+		}
+
+		checkCount.incrementAndGet();
+		long h1 = hash(bs, 0);
+		long h2 = hash(bs, h1) | 1;
+		for (int i = 0; i < hashCount; i++) {
+			long b = Long.remainderUnsigned(h1 + i*h2, bitCount);
+			if ((bits.get((int) (b >>> 6)) & (1L << b)) == 0) {
+				skipCount.incrementAndGet();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**查询后发现不存在，用于统计误判率
+	 */
+	public void onFalsePositive() {
+		falsePositiveCount.incrementAndGet();
+	}
+
+	/**转为和数据库比较规则一致的字节，只支持整数和字符串字段。
+	 * 整数字段只接受整数和 "12" 这种标准写法的字符串，"012", "1.0" 等数据库认为相等的不好统一；
+	 * 字符串字段传整数时数据库会按数值比较，"012" = 12，所以校验时不支持
+	 * @param value
+	 * @param isCheck 是否为校验，否则为加入
+	 * @return 不支持则返回 null
+	 */
+	protected byte[] normalize(@NotNull Object value, boolean isCheck) {
+		boolean isInteger = value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte || value instanceof BigInteger;
+
+		String s;
+		if (Boolean.TRUE.equals(numeric)) {
+			if (isInteger) {
+				s = value.toString();
+			}
+			else if (value instanceof String && INTEGER_PATTERN.matcher((String) value).matches()) {
+				s = (String) value;
+			}
+			else {
+				return null;
+			}
+		}
+		else if (value instanceof String) {
+			s = (String) value;
+			int end = s.length();
+			while (end > 0 && s.charAt(end - 1) == ' ') {  // MySQL 等 PAD SPACE 比较时忽略尾部空格
+				end --;
+			}
+			s = s.substring(0, end);
+			if (ignoreCase) {
+				s = s.toLowerCase(Locale.ROOT);
+			}
+		}
+		else if (isInteger && isCheck == false) {  // 存的就是 toString 后的值
+			s = value.toString();
+		}
+		else {
+			return null;
+		}
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static long hash(byte[] bs, long seed) {
+		long h = seed ^ 0xcbf29ce484222325L;
+		for (byte b : bs) {
+			h ^= b;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb53a87ec8e63L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * @return 各过滤器的统计，用于监控
+	 */
+	public static List<String> getStatistics() {
+		List<String> list = new ArrayList<>(FILTER_MAP.size());
+		for (RepeatFilter f : FILTER_MAP.values()) {
+			list.add(getKey(f.table, f.column) + ": ready = " + f.ready + ", memory = " + f.getMemory()
+					+ ", add = " + f.getAddCount() + ", check = " + f.getCheckCount() + ", skip = " + f.getSkipCount()
+					+ ", falsePositive = " + f.getFalsePositiveCount());
+		}
+		return list;
+	}
+
+}
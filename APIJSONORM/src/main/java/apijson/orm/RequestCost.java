@@ -0,0 +1,208 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.JSONRequest;
+import apijson.NotNull;
+import apijson.StringUtil;
+import apijson.orm.exception.OutOfRangeException;
+
+/**请求开销预估，MAX_SQL_COUNT, MAX_QUERY_DEPTH 等都是执行到一半超出才报错，这时前面的 SQL 已经执行了。
+ * 在执行任何 SQL 前遍历请求，按 数组的 count、嵌套层级、join 累计预估的 SQL 数和行数，
+ * 超出角色对应的 {@link #ROLE_MAX_COST_MAP} 直接拒绝，超出 {@link #QUEUE_COST} 的要排队，
+ * 同时执行的大开销请求不超过 {@link #MAX_QUEUE_CONCURRENCY} 个，避免匿名用户等发起的大查询拖垮数据库。
+ * 只是预估，按每个数组都查满 count 算，实际数量以 {@link ResultBudget} 累计为准。
+ * 默认不限制也不排队，需要时配置 {@link #MAX_COST}, {@link #ROLE_MAX_COST_MAP}, {@link #QUEUE_COST}
+ * @author Lemon
+ */
+public class RequestCost {
+
+	/**
+	 * 每条 SQL 相当于多少行的开销
+	 */
+	public static long SQL_COST = 100;
+	/**
+	 * 默认的最大开销，<= 0 则不限制
+	 */
+	public static long MAX_COST = 0;
+	/**
+	 * 按角色配置的最大开销，没配置的用 {@link #MAX_COST}，例如 UNKNOWN: 20000 只限制未登录的
+	 */
+	public static Map<String, Long> ROLE_MAX_COST_MAP;
+	/**
+	 * 超过这个开销的请求需要排队，<= 0 则不排队
+	 */
+	public static long QUEUE_COST = 0;
+	/**
+	 * 同时执行的需要排队的请求最大数量，修改后需要调用 {@link #resetQueue}
+	 */
+	public static int MAX_QUEUE_CONCURRENCY = 10;
+	/**
+	 * 排队最长等待时长(毫秒)，超时则返回 {@link apijson.JSONResponse#CODE_TIME_OUT}
+	 */
+	public static long QUEUE_TIMEOUT = 3000;
+
+	private static volatile Semaphore QUEUE;
+	static {
+		ROLE_MAX_COST_MAP = new HashMap<>();
+		resetQueue();
+	}
+
+	public static void resetQueue() {
+		QUEUE = new Semaphore(Math.max(1, MAX_QUEUE_CONCURRENCY), true);
+	}
+
+	/**是否配置了任何上限或排队，没有则不用预估
+	 * @return
+	 */
+	public static boolean isEnabled() {
+		return MAX_COST > 0 || QUEUE_COST > 0 || (ROLE_MAX_COST_MAP != null && ROLE_MAX_COST_MAP.isEmpty() == false);
+	}
+
+	public static long getMaxCost(String role) {
+		Long max = role == null ? null : ROLE_MAX_COST_MAP.get(role);
+		return max == null ? MAX_COST : max;
+	}
+
+
+	private final AbstractParser<?> parser;
+	private long sqlCount;
+	private long rowCount;
+	private Semaphore queue;
+
+	public RequestCost(@NotNull AbstractParser<?> parser) {
+		this.parser = parser;
+	}
+
+	public long getSqlCount() {
+		return sqlCount;
+	}
+	public long getRowCount() {
+		return rowCount;
+	}
+	public long getCost() {
+		return sqlCount*SQL_COST + rowCount;
+	}
+
+	/**预估请求的开销
+	 * @param request 还没被解析修改过的请求
+	 * @return
+	 */
+	public RequestCost estimate(@NotNull JSONObject request) {
+		add(request, 1, 1, 0);
+		return this;
+	}
+
+	/**遍历请求累计 SQL 数和行数
+	 * @param request
+	 * @param parentCount 上层数组的总项数，数组内每项都会单独查一次副表和子数组
+	 * @param itemCount 当前数组每次查询的数量，不在数组内则为 1
+	 * @param arraySqlCount 当前数组主表的 SQL 数，不是数组则为 0
+	 */
+	protected void add(JSONObject request, long parentCount, long itemCount, long arraySqlCount) {
+		boolean isArray = arraySqlCount > 0;
+		boolean isMain = isArray;
+		for (Map.Entry<String, Object> entry : request.entrySet()) {
+			String key = entry.getKey();
+			Object value = entry.getValue();
+			if (key == null || value instanceof JSONObject == false) {
+				continue;
+			}
+
+			JSONObject obj = (JSONObject) value;
+			if (apijson.JSONObject.isArrayKey(key)) {
+				Integer count = obj.getInteger(JSONRequest.KEY_COUNT);
+				int c = count == null ? parser.getDefaultQueryCount() : (count <= 0 ? parser.getMaxQueryCount() : count);
+				long total = parentCount*itemCount;
+
+				String query = obj.getString(JSONRequest.KEY_QUERY);
+				boolean isQueryTotal = query != null && "0".equals(query) == false && JSONRequest.QUERY_TABLE_STRING.equals(query) == false;
+				if (isQueryTotal) {
+					sqlCount += total;  // 查总数
+				}
+				addJoin(obj.getString(JSONRequest.KEY_JOIN), total, c);
+
+				// 数组项内的子数组，在父数组第 0 项时一条 SQL 查出整页父项的，见 AbstractObjectParser.ENABLE_ARRAY_CHILD_PAGE_BATCH
+				boolean isPageBatch = isArray && isQueryTotal == false && AbstractObjectParser.ENABLE_ARRAY_CHILD_PAGE_BATCH;
+				add(obj, total, c, isPageBatch ? parentCount : total);
+			}
+			else if (apijson.JSONObject.isTableKey(key)) {
+				if (isMain) {  // 数组主表一次查出整页
+					sqlCount += arraySqlCount;
+					isMain = false;
+				}
+				else if (isArray && AbstractObjectParser.ENABLE_ARRAY_CHILD_BATCH && obj.containsKey(apijson.JSONObject.KEY_ID + "@")) {
+					sqlCount += parentCount;  // 通过 id@ 引用主表的副表，一页一条 id{} 查询，见 AbstractObjectParser.ENABLE_ARRAY_CHILD_BATCH
+				}
+				else {
+					sqlCount += parentCount*itemCount;
+				}
+				rowCount += parentCount*itemCount;
+			}
+			else {
+				add(obj, parentCount, itemCount, 0);
+			}
+		}
+	}
+
+	/**"join": "&/User,@/Comment" 中 SQL JOIN 不增加 SQL，但每个副表都要多处理 count 行，APP JOIN 每次多一条 SQL
+	 * @param join
+	 * @param total
+	 * @param count
+	 */
+	protected void addJoin(String join, long total, int count) {
+		String[] joins = StringUtil.split(join);
+		if (joins == null) {
+			return;
+		}
+
+		for (String j : joins) {
+			if (j.startsWith("@/")) {
+				sqlCount += total;
+			}
+			rowCount += total*count;
+		}
+	}
+
+	/**检查开销，超出最大开销则拒绝，超过排队开销则等待
+	 * @param role
+	 * @throws Exception
+	 */
+	public void admit(String role) throws Exception {
+		long cost = getCost();
+		long max = getMaxCost(role);
+		if (max > 0 && cost > max) {
+			throw new OutOfRangeException("请求预估开销 " + cost + "（" + sqlCount + " 条 SQL，" + rowCount + " 行）已超过角色 "
+					+ role + " 的上限 " + max + "，请减少 count 或嵌套数组、join 的数量！");
+		}
+
+		if (QUEUE_COST > 0 && cost > QUEUE_COST) {
+			Semaphore q = QUEUE;
+			if (q.tryAcquire(QUEUE_TIMEOUT, TimeUnit.MILLISECONDS) == false) {
+				throw new TimeoutException("服务器繁忙，请求预估开销 " + cost + " 较大，排队等待超过 " + QUEUE_TIMEOUT + " 毫秒，请稍后重试或减少 count！");
+			}
+			queue = q;
+		}
+	}
+
+	/**请求执行完后释放排队许可，必须在 finally 中调用
+	 */
+	public void release() {
+		if (queue != null) {
+			queue.release();
+			queue = null;
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.NotNull;
+import apijson.RequestMethod;
+
+/**整个请求的解析计划，包括其中每个对象的 {@link ObjectPlan}，
+ * 按 method、tag、version 及请求结构(全部 key 及值是对象、数组还是其它)的哈希缓存，
+ * 同一个页面的请求结构相同、只有值不同，所以可以直接复用，超过数量后淘汰最久未使用的。
+ * 哈希冲突或解析前 key 有变化时，{@link ObjectPlan#get} 对不在计划里的 key 会重新判断，不影响结果
+ * @author Lemon
+ */
+public class RequestPlan {
+
+	/**
+	 * 缓存的计划最大数量，超过后淘汰最久未使用的，<= 0 则不缓存，每次都按 key 判断
+	 */
+	public static int MAX_CACHE_COUNT = 1000;
+
+	private static final BoundedCache<String, RequestPlan> CACHE_MAP = new BoundedCache<>(() -> MAX_CACHE_COUNT);
+
+	/**
+	 * 按深度优先顺序排列的对象计划
+	 */
+	private final ObjectPlan[] objectPlans;
+
+	private RequestPlan(@NotNull List<JSONObject> objectList) {
+		objectPlans = new ObjectPlan[objectList.size()];
+		for (int i = 0; i < objectPlans.length; i++) {
+			objectPlans[i] = new ObjectPlan(objectList.get(i).keySet());
+		}
+	}
+
+	/**获取请求中每个对象的解析计划，结构相同的请求共用同一份计划
+	 * @param method
+	 * @param tag
+	 * @param version
+	 * @param request 已去掉 @role, @database 等全局关键词
+	 * @return 对象 -> 计划，按实例对应；不缓存则返回 null
+	 */
+	public static Map<JSONObject, ObjectPlan> bind(RequestMethod method, String tag, int version, JSONObject request) {
+		if (MAX_CACHE_COUNT <= 0 || request == null) {
+			return null;
+		}
+
+		List<JSONObject> objectList = new ArrayList<>();
+		long hash = hash(request, objectList, 1);
+		String key = method + "/" + tag + "/" + version + "/" + objectList.size() + "/" + Long.toHexString(hash);
+
+		RequestPlan plan = CACHE_MAP.get(key);
+		if (plan == null || plan.objectPlans.length != objectList.size()) {
+			plan = new RequestPlan(objectList);
+			CACHE_MAP.put(key, plan);
+		}
+
+		Map<JSONObject, ObjectPlan> map = new IdentityHashMap<>(objectList.size());
+		for (int i = 0; i < plan.objectPlans.length; i++) {
+			map.put(objectList.get(i), plan.objectPlans[i]);
+		}
+		return map;
+	}
+
+	/**深度优先遍历计算结构哈希，同时按顺序记下全部对象。
+	 * 字符串的 hashCode 有缓存，请求 key 大多还是解析 JSON 时共用的同一个实例，所以比逐个 key 做字符串判断更快
+	 * @param obj
+	 * @param objectList
+	 * @param hash
+	 * @return
+	 */
+	private static long hash(JSONObject obj, List<JSONObject> objectList, long hash) {
+		objectList.add(obj);
+		hash = 31*hash + obj.size();
+
+		for (Entry<String, Object> entry : obj.entrySet()) {
+			String k = entry.getKey();
+			Object v = entry.getValue();
+			hash = 31*hash + (k == null ? 0 : k.hashCode());
+
+			if (v instanceof JSONObject) {
+				hash = hash((JSONObject) v, objectList, 31*hash + 1);
+			}
+			else {
+				hash = 31*hash + (v instanceof JSONArray ? 2 : 3);
+			}
+		}
+
+		return 31*hash + 4;  // 对象结束，区分 {a:{b}, c} 和 {a:{b, c}}
+	}
+
+	public static void clear() {
+		CACHE_MAP.clear();
+	}
+
+}
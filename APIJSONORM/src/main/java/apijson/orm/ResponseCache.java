@@ -0,0 +1,255 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+
+import apijson.JSON;
+import apijson.NotNull;
+import apijson.RequestMethod;
+import apijson.StringUtil;
+
+/**整个响应的缓存，首页、分类、配置 等和访问者无关的公开 GET 请求，所有用户的请求都一样，
+ * 命中后直接返回序列化好的响应，跳过 解析、校验、SQL 等全部流程。
+ * 同时保存序列化好的 byte[] 及解析好的 JSONObject，写到输出流时直接用前者，返回对象时复制后者，都不用再序列化或解析。
+ * 只缓存 {@link #TTL_MAP} 中配置了 tag 的请求，并且请求中所有 @role 都在 {@link #ROLE_SET} 中，
+ * 任何 POST, PUT, DELETE 修改了缓存的响应中查过的表，都会让对应缓存失效。
+ * 只在当前 JVM 内有效，集群部署需要自行同步失效
+ * @author Lemon
+ */
+public class ResponseCache {
+
+	/**
+	 * 缓存的响应最大数量，超过后淘汰最久未使用的，<= 0 则不缓存
+	 */
+	public static int MAX_CACHE_COUNT = 1000;
+
+	/**
+	 * 每个 tag 对应的缓存有效时长(毫秒)，没有传 tag 的用 "" 配置，没配置或 <= 0 的不缓存
+	 */
+	public static Map<String, Long> TTL_MAP;
+	/**
+	 * 可以缓存的角色，命中缓存会跳过登录及角色校验，所以只能放不需要校验访问者的角色，默认只有 UNKNOWN。
+	 * 没传 @role 的按 已登录 LOGIN、未登录 UNKNOWN 来判断
+	 */
+	public static Set<String> ROLE_SET;
+	static {
+		TTL_MAP = new HashMap<>();
+		ROLE_SET = new HashSet<>();
+		ROLE_SET.add(AbstractVerifier.UNKNOWN);
+	}
+
+	private static class Item {
+		final byte[] bytes;
+		final JSONObject response;
+		final Set<String> tableSet;
+		final long expireTime;
+
+		Item(byte[] bytes, JSONObject response, Set<String> tableSet, long expireTime) {
+			this.bytes = bytes;
+			this.response = response;
+			this.tableSet = tableSet;
+			this.expireTime = expireTime;
+		}
+	}
+
+	// 以下都通过 synchronized (TABLE_KEY_MAP) 来保证一致，CACHE_MAP 读取不加锁
+	private static long version;
+	private static long clearVersion;
+	/**
+	 * 每张表最近一次失效时的 version，查询开始前就已经失效过的才能保存
+	 */
+	private static final Map<String, Long> TABLE_VERSION_MAP = new HashMap<>();
+	private static final Map<String, Set<String>> TABLE_KEY_MAP = new HashMap<>();
+	private static final BoundedCache<String, Item> CACHE_MAP = new BoundedCache<String, Item>(() -> MAX_CACHE_COUNT) {
+		@Override
+		protected void onRemove(String key, Item value) {
+			synchronized (TABLE_KEY_MAP) {
+				unindex(key, value);
+			}
+		}
+	};
+
+	/**获取 tag 对应的缓存有效时长
+	 * @param tag
+	 * @return <= 0 则不缓存
+	 */
+	public static long getTtl(String tag) {
+		Long ttl = TTL_MAP.get(tag == null ? "" : tag);
+		return ttl == null ? 0 : ttl;
+	}
+
+	/**生成缓存 key，和请求中 key 的顺序无关
+	 * @param method
+	 * @param tag
+	 * @param role
+	 * @param request 还没被解析修改过的原始请求
+	 * @return
+	 */
+	@NotNull
+	public static String getKey(RequestMethod method, String tag, String role, @NotNull JSONObject request) {
+		return method + "/" + StringUtil.getString(tag) + "/" + StringUtil.getString(role) + "/"
+				+ JSON.toJSONString(request, SerializerFeature.MapSortField, SerializerFeature.SortField);
+	}
+
+	/**获取缓存的响应，用于直接写到输出流
+	 * @param key
+	 * @return 序列化好的响应，没有或已过期则返回 null
+	 */
+	public static byte[] get(String key) {
+		Item item = getItem(key);
+		return item == null ? null : item.bytes;
+	}
+
+	/**获取缓存的响应，每次返回一份新的副本，调用方可以修改
+	 * @param key
+	 * @return 没有或已过期则返回 null
+	 */
+	public static JSONObject getResponse(String key) {
+		Item item = getItem(key);
+		return item == null ? null : (JSONObject) copy(item.response);
+	}
+
+	private static Item getItem(String key) {
+		Item item = key == null ? null : CACHE_MAP.get(key);
+		if (item == null) {
+			return null;
+		}
+		if (item.expireTime < System.currentTimeMillis()) {
+			CACHE_MAP.remove(key, item);
+			return null;
+		}
+		return item;
+	}
+
+	/**只复制 JSONObject, JSONArray，其它值都是不可变的或者不会被修改
+	 */
+	private static Object copy(Object value) {
+		if (value instanceof JSONObject) {
+			JSONObject obj = (JSONObject) value;
+			JSONObject copy = new JSONObject(obj.size(), true);
+			for (Entry<String, Object> entry : obj.entrySet()) {
+				copy.put(entry.getKey(), copy(entry.getValue()));
+			}
+			return copy;
+		}
+		if (value instanceof JSONArray) {
+			JSONArray arr = (JSONArray) value;
+			JSONArray copy = new JSONArray(arr.size());
+			for (Object item : arr) {
+				copy.add(copy(item));
+			}
+			return copy;
+		}
+		return value;
+	}
+
+	/**获取当前版本，在查询前调用，保存时传给 {@link #put}
+	 * @return
+	 */
+	public static long getVersion() {
+		synchronized (TABLE_KEY_MAP) {
+			return version;
+		}
+	}
+
+	/**保存响应
+	 * @param key
+	 * @param response 不含耗时等每次都不一样的调试信息，保存的是序列化后再解析的副本，之后修改 response 不影响缓存
+	 * @param tableSet 得到这个响应查过的表，修改其中任何一张表都会让这个缓存失效
+	 * @param ttl 有效时长(毫秒)
+	 * @param startVersion 查询前通过 {@link #getVersion} 获取的版本，查询过程中查过的表失效过则不保存，避免旧数据在失效后又被放回去
+	 */
+	public static void put(@NotNull String key, @NotNull JSONObject response, @NotNull Collection<String> tableSet, long ttl, long startVersion) {
+		if (ttl <= 0 || MAX_CACHE_COUNT <= 0) {
+			return;
+		}
+
+		String s = JSON.toJSONString(response);
+		Item item = new Item(s.getBytes(StandardCharsets.UTF_8), JSON.parseObject(s), new HashSet<>(tableSet), System.currentTimeMillis() + ttl);
+		synchronized (TABLE_KEY_MAP) {
+			if (clearVersion > startVersion) {
+				return;
+			}
+			for (String table : item.tableSet) {
+				Long v = TABLE_VERSION_MAP.get(table);
+				if (v != null && v > startVersion) {
+					return;
+				}
+			}
+
+			CACHE_MAP.put(key, item);  // 替换及淘汰的都在 onRemove 中 unindex
+
+			for (String table : item.tableSet) {
+				Set<String> keySet = TABLE_KEY_MAP.get(table);
+				if (keySet == null) {
+					keySet = new HashSet<>();
+					TABLE_KEY_MAP.put(table, keySet);
+				}
+				keySet.add(key);
+			}
+		}
+	}
+
+	/**让查过这些表的缓存都失效，在 POST, PUT, DELETE 成功后调用
+	 * @param tableSet
+	 */
+	public static void invalidate(Collection<String> tableSet) {
+		if (tableSet == null || tableSet.isEmpty()) {
+			return;
+		}
+
+		synchronized (TABLE_KEY_MAP) {
+			version ++;
+			for (String table : tableSet) {
+				TABLE_VERSION_MAP.put(table, version);
+
+				Set<String> keySet = TABLE_KEY_MAP.remove(table);
+				if (keySet == null) {
+					continue;
+				}
+
+				for (String key : keySet) {
+					CACHE_MAP.remove(key);
+				}
+			}
+		}
+	}
+
+	/**清空缓存
+	 */
+	public static void clear() {
+		synchronized (TABLE_KEY_MAP) {
+			clearVersion = ++ version;
+			CACHE_MAP.clear();
+			TABLE_KEY_MAP.clear();
+			TABLE_VERSION_MAP.clear();
+		}
+	}
+
+	private static void unindex(String key, Item item) {
+		for (String table : item.tableSet) {
+			Set<String> keySet = TABLE_KEY_MAP.get(table);
+			if (keySet != null) {
+				keySet.remove(key);
+				if (keySet.isEmpty()) {
+					TABLE_KEY_MAP.remove(table);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import apijson.orm.exception.OutOfRangeException;
+
+/**单个请求的结果预算，MAX_QUERY_COUNT, MAX_ARRAY_COUNT, MAX_QUERY_DEPTH, MAX_SQL_COUNT 等都是分开限制的，
+ * 嵌套数组时数量相乘，例如 100*100*100 仍然可能生成巨大的响应，所以累计整个请求查到的 行数、单元格数、预估字节数 以及 响应数组项数，
+ * 超出预算就立即中断并返回 {@link apijson.JSONResponse#CODE_OUT_OF_RANGE}，不用等到内存溢出。
+ * 由 {@link AbstractSQLExecutor} 映射每行数据时和 {@link AbstractParser#onArrayParse} 生成每个数组项时累计，
+ * 可在 {@link #TAG_BUDGET_MAP}, {@link #ROLE_BUDGET_MAP} 按 tag, 角色 配置不同的预算，<= 0 则不限制
+ * @author Lemon
+ */
+public class ResultBudget {
+
+	// 默认都不限制，避免升级后原来正常的请求被拒绝，需要时再配置，例如 MAX_ROW_COUNT = 100000
+	public static long MAX_ROW_COUNT = 0;
+	public static long MAX_CELL_COUNT = 0;
+	public static long MAX_BYTE_COUNT = 0;
+	public static long MAX_ITEM_COUNT = 0;
+
+	/**
+	 * 按 tag 配置的预算，优先于 {@link #ROLE_BUDGET_MAP}
+	 */
+	public static Map<String, ResultBudget> TAG_BUDGET_MAP;
+	/**
+	 * 按角色配置的预算，例如 ADMIN 可以放宽
+	 */
+	public static Map<String, ResultBudget> ROLE_BUDGET_MAP;
+	static {
+		TAG_BUDGET_MAP = new HashMap<>();
+		ROLE_BUDGET_MAP = new HashMap<>();
+	}
+
+	/**获取 tag, 角色 对应的预算，都没有配置则用默认的 MAX_ROW_COUNT 等
+	 * @param tag
+	 * @param role
+	 * @return 新的实例，不会累计到配置的预算上，都没有配置且默认都不限制则返回 null
+	 */
+	public static ResultBudget of(String tag, String role) {
+		ResultBudget budget = tag == null ? null : TAG_BUDGET_MAP.get(tag);
+		if (budget == null && role != null) {
+			budget = ROLE_BUDGET_MAP.get(role);
+		}
+		if (budget == null && MAX_ROW_COUNT <= 0 && MAX_CELL_COUNT <= 0 && MAX_BYTE_COUNT <= 0 && MAX_ITEM_COUNT <= 0) {
+			return null;
+		}
+		return budget == null ? new ResultBudget(MAX_ROW_COUNT, MAX_CELL_COUNT, MAX_BYTE_COUNT, MAX_ITEM_COUNT)
+				: new ResultBudget(budget.maxRowCount, budget.maxCellCount, budget.maxByteCount, budget.maxItemCount);
+	}
+
+	/**每一项都取更严格的上限，用于批量请求中 tag, 角色 不同的多个请求共用一个预算
+	 * @param a
+	 * @param b
+	 * @return 新的实例，都不限制则返回 null
+	 */
+	public static ResultBudget min(ResultBudget a, ResultBudget b) {
+		if (a == null || b == null) {
+			ResultBudget budget = a != null ? a : b;
+			return budget == null ? null : new ResultBudget(budget.maxRowCount, budget.maxCellCount, budget.maxByteCount, budget.maxItemCount);
+		}
+		return new ResultBudget(min(a.maxRowCount, b.maxRowCount), min(a.maxCellCount, b.maxCellCount)
+				, min(a.maxByteCount, b.maxByteCount), min(a.maxItemCount, b.maxItemCount));
+	}
+
+	private static long min(long a, long b) {  // <= 0 为不限制
+		return a <= 0 ? b : (b <= 0 ? a : Math.min(a, b));
+	}
+
+
+	private final long maxRowCount;
+	private final long maxCellCount;
+	private final long maxByteCount;
+	private final long maxItemCount;
+
+	private long rowCount;
+	private long cellCount;
+	private long byteCount;
+	private long itemCount;
+
+	public ResultBudget(long maxRowCount, long maxCellCount, long maxByteCount, long maxItemCount) {
+		this.maxRowCount = maxRowCount;
+		this.maxCellCount = maxCellCount;
+		this.maxByteCount = maxByteCount;
+		this.maxItemCount = maxItemCount;
+	}
+
+	public long getMaxRowCount() {
+		return maxRowCount;
+	}
+	public long getMaxCellCount() {
+		return maxCellCount;
+	}
+	public long getMaxByteCount() {
+		return maxByteCount;
+	}
+	public long getMaxItemCount() {
+		return maxItemCount;
+	}
+
+	public synchronized long getRowCount() {
+		return rowCount;
+	}
+	public synchronized long getCellCount() {
+		return cellCount;
+	}
+	public synchronized long getByteCount() {
+		return byteCount;
+	}
+	public synchronized long getItemCount() {
+		return itemCount;
+	}
+
+	/**累计数据库查到的一行，分片并行查询时会在多个线程调用
+	 * @param cellCount 这一行的字段数
+	 * @param byteCount 这一行的预估字节数，见 {@link #estimateSize(Object)}
+	 * @throws OutOfRangeException
+	 */
+	public synchronized void addRow(int cellCount, long byteCount) throws OutOfRangeException {
+		this.rowCount ++;
+		this.cellCount += cellCount;
+		this.byteCount += byteCount;
+
+		if (maxRowCount > 0 && rowCount > maxRowCount) {
+			throw new OutOfRangeException("查询结果总行数已超过 " + maxRowCount + " 行的上限，请减少 count 或嵌套数组数量！");
+		}
+		if (maxCellCount > 0 && this.cellCount > maxCellCount) {
+			throw new OutOfRangeException("查询结果总字段数已超过 " + maxCellCount + " 个的上限，请减少 count 或 @column 字段！");
+		}
+		if (maxByteCount > 0 && this.byteCount > maxByteCount) {
+			throw new OutOfRangeException("查询结果预估大小已超过 " + maxByteCount + " 字节的上限，请减少 count 或 @column 字段！");
+		}
+	}
+
+	/**累计响应中的数组项，同一条 SQL 的结果被缓存复用时不会再调用 {@link #addRow}，但仍会重复出现在响应中
+	 * @param count
+	 * @throws OutOfRangeException
+	 */
+	public synchronized void addItem(int count) throws OutOfRangeException {
+		itemCount += count;
+		if (maxItemCount > 0 && itemCount > maxItemCount) {
+			throw new OutOfRangeException("响应中数组总项数已超过 " + maxItemCount + " 项的上限，请减少 count 或嵌套数组数量！");
+		}
+	}
+
+	/**预估值在内存中占用的字节数，只求快不求准
+	 * @param value
+	 * @return
+	 */
+	public static long estimateSize(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof CharSequence) {
+			return 40 + 2L*((CharSequence) value).length();
+		}
+		if (value instanceof byte[]) {
+			return 16 + ((byte[]) value).length;
+		}
+		if (value instanceof Map) {
+			long size = 48;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				size += 32 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+			}
+			return size;
+		}
+		if (value instanceof Collection) {
+			long size = 24;
+			for (Object item : (Collection<?>) value) {
+				size += 8 + estimateSize(item);
+			}
+			return size;
+		}
+		return 24;
+	}
+
+}
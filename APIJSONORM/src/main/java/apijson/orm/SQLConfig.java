@@ -184,11 +184,20 @@ public interface SQLConfig {
 	String getDatasource();
 	SQLConfig setDatasource(String datasource);
 
+	/**没有分片字段值的查询需要分散执行的全部分片数据源，为 null 则只在 {@link #getDatasource()} 执行
+	 * @return
+	 */
+	List<String> getShardDatasourceList();
+	SQLConfig setShardDatasourceList(List<String> shardDatasourceList);
+
 	String getQuote();
 
 	List<String> getJson();
 	SQLConfig setJson(List<String> json);
 
+	List<String> getHint();
+	SQLConfig setHint(List<String> hint);
+
 	/**请求传进来的Table名
 	 * @return
 	 * @see {@link #getSQLTable()}
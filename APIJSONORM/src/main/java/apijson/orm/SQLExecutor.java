@@ -134,4 +134,19 @@ public interface SQLExecutor {
 
 	long getSqlResultDuration();
 
+	/**当前请求的结果预算，为 null 则不限制
+	 * @return
+	 */
+	default ResultBudget getResultBudget() {
+		return null;
+	}
+
+	/**不支持预算的实现可以不重写，忽略即可
+	 * @param resultBudget
+	 * @return
+	 */
+	default SQLExecutor setResultBudget(ResultBudget resultBudget) {
+		return this;
+	}
+
 }
@@ -0,0 +1,54 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.util.List;
+
+import apijson.NotNull;
+
+/**分片路由，根据分片字段的值把表路由到对应的数据源 datasource，
+ * 在 {@link AbstractSQLConfig#SHARD_ROUTER_MAP} 按表名配置，
+ * {@link AbstractSQLConfig#getDBUri()} 等需要根据 {@link SQLConfig#getDatasource()} 返回对应分片的连接信息
+ * @author Lemon
+ */
+public interface ShardRouter {
+
+	/**分片字段，例如 userId
+	 * @return
+	 */
+	@NotNull
+	String getColumn();
+
+	/**全部分片对应的数据源，没有分片字段值的查询会分散到这里的每个数据源再合并结果
+	 * @return
+	 */
+	@NotNull
+	List<String> getDatasourceList();
+
+	/**根据分片字段的值路由到对应的数据源，默认按数值取模，非数值按 hashCode 取模
+	 * @param value 分片字段的值，不为 null
+	 * @return
+	 */
+	@NotNull
+	default String route(@NotNull Object value) {
+		List<String> list = getDatasourceList();
+		long hash;
+		if (value instanceof Number) {
+			hash = ((Number) value).longValue();
+		}
+		else {
+			String s = value.toString();
+			try {
+				hash = Long.parseLong(s);
+			}
+			catch (NumberFormatException e) {
+				hash = s.hashCode();
+			}
+		}
+		return list.get((int) Math.floorMod(hash, (long) list.size()));
+	}
+
+}
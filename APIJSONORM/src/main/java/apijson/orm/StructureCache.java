@@ -0,0 +1,210 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.JSONRequest;
+import apijson.NotNull;
+import apijson.StringUtil;
+
+/**{@link AbstractParser#getStructure} 查到的 Request 表结构缓存，按 表名、method、tag、version 缓存，
+ * 查不到的也缓存一段时间，避免恶意请求不存在的 tag, version 每次都查数据库，超过数量后淘汰最久未使用的。
+ * 启动时可通过 {@link #preload} 一次性加载全部 Request 到 {@link AbstractVerifier#REQUEST_MAP}，
+ * 之后非开放请求都不会在请求过程中查 Request 表
+ * @author Lemon
+ */
+public class StructureCache {
+
+	/**
+	 * 缓存的结构最大数量，超过后淘汰最久未使用的，<= 0 则不缓存
+	 */
+	public static int MAX_CACHE_COUNT = 5000;
+	/**
+	 * 查不到的结构缓存时长(毫秒)，过期后才会重新查，<= 0 则不缓存查不到的
+	 */
+	public static long NOT_FOUND_TTL = 60*1000;
+
+	/**缓存项，structure 为 null 说明查过但不存在
+	 */
+	public static class Item {
+		private final JSONObject structure;
+		private final long expireTime;
+		private volatile StructureRule rule;
+
+		public Item(JSONObject structure, long expireTime) {
+			this.structure = structure;
+			this.expireTime = expireTime;
+		}
+
+		public JSONObject getStructure() {
+			return structure;
+		}
+		/**获取编译后的规则，第一次用到时才编译，此时 {@link AbstractParser#wrapRequest} 已经对 structure 做完补全
+		 * @return structure 为 null 则返回 null
+		 */
+		public StructureRule getRule() {
+			if (rule == null && structure != null) {
+				rule = new StructureRule(structure);
+			}
+			return rule;
+		}
+		public boolean isExpired() {
+			return expireTime > 0 && expireTime < System.currentTimeMillis();
+		}
+	}
+
+	/**按实例比较的 key，JSONObject 的 equals 和 hashCode 会遍历全部内容
+	 */
+	private static class StructureKey {
+		private final JSONObject structure;
+
+		StructureKey(JSONObject structure) {
+			this.structure = structure;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(structure);
+		}
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof StructureKey && ((StructureKey) obj).structure == structure;
+		}
+	}
+
+	// structure 实例 -> 缓存项，用于 StructureRule.of 按实例找到已编译的规则，和 CACHE_MAP 同步增删
+	private static final Map<StructureKey, Item> STRUCTURE_MAP = new ConcurrentHashMap<>();
+	/**
+	 * 每次 {@link #clear} 都加 1，用于丢弃清空前开始查询的结果
+	 */
+	private static volatile long generation;
+	private static final BoundedCache<String, Item> CACHE_MAP = new BoundedCache<String, Item>(() -> MAX_CACHE_COUNT) {
+		@Override
+		protected void onRemove(String key, Item value) {
+			if (value.structure != null) {
+				STRUCTURE_MAP.remove(new StructureKey(value.structure), value);
+			}
+		}
+	};
+
+	public static String getKey(String table, String method, String tag, int version) {
+		return table + "/" + method + "/" + tag + "/" + version;
+	}
+
+	/**获取缓存
+	 * @param key
+	 * @return 没有或已过期则返回 null，{@link Item#getStructure()} 为 null 说明不存在
+	 */
+	public static Item get(String key) {
+		if (MAX_CACHE_COUNT <= 0) {
+			return null;
+		}
+
+		Item item = CACHE_MAP.get(key);
+		if (item != null && item.isExpired()) {
+			CACHE_MAP.remove(key, item);
+			return null;
+		}
+		return item;
+	}
+
+	/**获取当前代数，在读取 {@link AbstractVerifier#REQUEST_MAP} 或查询 Request 表前调用，保存时传给 {@link #put(String, JSONObject, long)}
+	 * @return
+	 */
+	public static long getGeneration() {
+		return generation;
+	}
+
+	/**保存缓存
+	 * @param key
+	 * @param structure 为 null 则缓存 {@link #NOT_FOUND_TTL} 毫秒
+	 */
+	public static void put(String key, JSONObject structure) {
+		put(key, structure, generation);
+	}
+	/**保存缓存，查询过程中调用过 {@link #clear} 则不保存，避免旧结构在清空后又被放回去
+	 * @param key
+	 * @param structure 为 null 则缓存 {@link #NOT_FOUND_TTL} 毫秒
+	 * @param startGeneration 查询前通过 {@link #getGeneration} 获取的代数
+	 */
+	public static void put(String key, JSONObject structure, long startGeneration) {
+		if (MAX_CACHE_COUNT <= 0 || (structure == null && NOT_FOUND_TTL <= 0) || generation != startGeneration) {
+			return;
+		}
+		Item item = new Item(structure, structure == null ? System.currentTimeMillis() + NOT_FOUND_TTL : 0);
+		StructureKey structureKey = structure == null ? null : new StructureKey(structure);
+		if (structureKey != null) {
+			STRUCTURE_MAP.put(structureKey, item);
+		}
+		CACHE_MAP.put(key, item);
+
+		// clear 先加代数再清空，这里还是同一代说明之后的清空一定会移除它，否则自己移除
+		if (generation != startGeneration) {
+			CACHE_MAP.remove(key, item);
+			if (structureKey != null) {
+				STRUCTURE_MAP.remove(structureKey, item);
+			}
+		}
+	}
+
+	/**获取缓存的 structure 编译后的规则
+	 * @param structure
+	 * @return 不是缓存中的 structure 实例则返回 null
+	 */
+	public static StructureRule getRule(JSONObject structure) {
+		Item item = structure == null ? null : STRUCTURE_MAP.get(new StructureKey(structure));
+		return item == null ? null : item.getRule();
+	}
+
+	/**清空缓存，修改 Request 表或者 {@link AbstractVerifier#REQUEST_MAP} 后需要调用
+	 */
+	public static void clear() {
+		synchronized (StructureCache.class) {  // 只有这里修改 generation
+			generation ++;
+		}
+		CACHE_MAP.clear();
+		STRUCTURE_MAP.clear();
+	}
+
+	/**一次性加载全部 Request，生成新的 REQUEST_MAP 后整体替换，不修改正在被其它请求读取的旧 REQUEST_MAP
+	 * @param requestList Request 表的全部记录，每项至少包含 method, tag, version, structure
+	 */
+	public static void preload(@NotNull Collection<JSONObject> requestList) {
+		Map<String, SortedMap<Integer, JSONObject>> map = new HashMap<>(Math.max(16, requestList.size()*4/3 + 1));
+		for (JSONObject item : requestList) {
+			if (item == null) {
+				continue;
+			}
+
+			String method = item.getString("method");
+			String tag = item.getString(JSONRequest.KEY_TAG);
+			if (StringUtil.isEmpty(method, true) || StringUtil.isEmpty(tag, true)) {
+				continue;
+			}
+
+			String cacheKey = AbstractVerifier.getCacheKeyForRequest(method, tag);
+			SortedMap<Integer, JSONObject> versionedMap = map.get(cacheKey);
+			if (versionedMap == null) {
+				versionedMap = new TreeMap<>((o1, o2) -> {
+					return o2 == null ? -1 : o2.compareTo(o1);  // 降序
+				});
+				map.put(cacheKey, versionedMap);
+			}
+			versionedMap.put(item.getIntValue(JSONRequest.KEY_VERSION), item);
+		}
+
+		AbstractVerifier.setRequestMap(map);
+	}
+
+}
@@ -0,0 +1,270 @@
+/*Copyright (C) 2020 THL A29 Limited, a Tencent company.  All rights reserved.
+
+This source code is licensed under the Apache License Version 2.0.*/
+
+
+package apijson.orm;
+
+import static apijson.orm.Operation.EXIST;
+import static apijson.orm.Operation.INSERT;
+import static apijson.orm.Operation.MUST;
+import static apijson.orm.Operation.REFUSE;
+import static apijson.orm.Operation.REMOVE;
+import static apijson.orm.Operation.REPLACE;
+import static apijson.orm.Operation.TYPE;
+import static apijson.orm.Operation.UNIQUE;
+import static apijson.orm.Operation.UPDATE;
+import static apijson.orm.Operation.VERIFY;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.NotNull;
+import apijson.StringUtil;
+
+/**Request 表 structure 编译后的校验规则，{@link AbstractVerifier#parse} 不用每次都 getString, split, 过滤 TYPE 等操作关键词，
+ * REFUSE 也只在没有用 "!" 时提前算好。子对象的规则在第一次用到时编译，
+ * {@link StructureCache} 中缓存的 structure 对应的规则只编译一次，其它的每次调用 {@link #of} 都重新编译。
+ * 编译后不能再修改 structure，修改 Request 表后需要清空 {@link StructureCache}
+ * @author Lemon
+ */
+public class StructureRule {
+
+	/**structure 中的一个键值对，值为 {} 的会带上对应的子规则
+	 */
+	public static class Entry {
+		private final String key;
+		private final Object value;
+		private volatile StructureRule rule;
+
+		public Entry(String key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public String getKey() {
+			return key;
+		}
+		public Object getValue() {
+			return value;
+		}
+		/**获取值为 {} 的子规则，第一次用到时才编译
+		 * @return
+		 */
+		public StructureRule getRule() {
+			if (rule == null && value instanceof JSONObject) {
+				rule = of((JSONObject) value);
+			}
+			return rule;
+		}
+	}
+
+	private static final Entry[] EMPTY = new Entry[0];
+
+	/**获取 structure 对应的规则，{@link StructureCache} 中缓存的直接复用
+	 * @param structure
+	 * @return
+	 */
+	public static StructureRule of(JSONObject structure) {
+		if (structure == null) {
+			return null;
+		}
+		StructureRule rule = StructureCache.getRule(structure);
+		return rule != null ? rule : new StructureRule(structure);
+	}
+
+
+	private final JSONObject structure;
+
+	private final String must;
+	private final String[] musts;
+	private final Set<String> mustSet;
+	private final String[] removes;
+	private final String refuse;
+	private final String[] refuses;
+	private final Set<String> refuseSet;
+	private final Exception refuseError;
+	private final String[] exists;
+	private final String[] uniques;
+
+	private final Entry[] entries;
+	private final Entry[] types;
+	private final Entry[] verifies;
+	private final Entry[] inserts;
+	private final Entry[] updates;
+	private final Entry[] replaces;
+
+	public StructureRule(@NotNull JSONObject structure) {
+		this.structure = structure;
+
+		must = StringUtil.getNoBlankString(structure.getString(MUST.name()));
+		musts = StringUtil.split(must);
+		Set<String> mustSet = new HashSet<>();
+		if (musts != null) {
+			for (String s : musts) {
+				mustSet.add(s);
+			}
+		}
+		this.mustSet = Collections.unmodifiableSet(mustSet);
+
+		removes = StringUtil.split(StringUtil.getNoBlankString(structure.getString(REMOVE.name())));
+		exists = StringUtil.split(StringUtil.getNoBlankString(structure.getString(EXIST.name())));
+		uniques = StringUtil.split(StringUtil.getNoBlankString(structure.getString(UNIQUE.name())));
+
+		refuse = StringUtil.getNoBlankString(structure.getString(REFUSE.name()));
+		refuses = StringUtil.split(refuse);
+
+		// 只有 "!" 排除全部非 MUST 字段时才和请求传的 key 有关，其它情况都可以提前算好，包括重复等错误
+		Set<String> refuseSet = null;
+		Exception refuseError = null;
+		boolean isRefuseAll = false;
+		if (refuses != null) {
+			for (String rfs : refuses) {
+				if ("!".equals(rfs)) {
+					isRefuseAll = true;
+					break;
+				}
+			}
+		}
+		if (isRefuseAll == false) {
+			try {
+				refuseSet = Collections.unmodifiableSet(AbstractVerifier.getRefuseSet(refuses
+						, Collections.<String>emptySet(), this.mustSet, Collections.<String>emptySet()));
+			} catch (Exception e) {
+				refuseError = e;
+			}
+		}
+		this.refuseSet = refuseSet;
+		this.refuseError = refuseError;
+
+		List<Entry> list = new ArrayList<>(structure.size());
+		for (Map.Entry<String, Object> e : structure.entrySet()) {
+			String key = e == null ? null : e.getKey();
+			if (key == null || AbstractVerifier.OPERATION_KEY_LIST.contains(key)) {
+				continue;
+			}
+			list.add(new Entry(key, e.getValue()));
+		}
+		entries = list.toArray(EMPTY);
+
+		types = getOperationEntries(structure.getJSONObject(TYPE.name()));
+		verifies = getOperationEntries(structure.getJSONObject(VERIFY.name()));
+		inserts = getOperationEntries(structure.getJSONObject(INSERT.name()));
+		updates = getOperationEntries(structure.getJSONObject(UPDATE.name()));
+		replaces = getOperationEntries(structure.getJSONObject(REPLACE.name()));
+
+		precompile(verifies);
+	}
+
+	/**VERIFY 中 key~ 的正则提前放进 {@link PatternCache}，语法错误的留到校验时再报错
+	 * @param verifies
+	 */
+	private static void precompile(Entry[] verifies) {
+		if (verifies == null) {
+			return;
+		}
+
+		for (Entry e : verifies) {
+			if (e.getKey().endsWith("~") == false) {
+				continue;
+			}
+
+			Object v = e.getValue();
+			Collection<?> regs = v instanceof Collection ? (Collection<?>) v : Collections.singletonList(v);
+			for (Object r : regs) {
+				if (r instanceof String) {
+					try {
+						PatternCache.get((String) r);
+					} catch (Exception ex) {
+						// 和原来一样在 verifyValue 中报错
+					}
+				}
+			}
+		}
+	}
+
+	private static Entry[] getOperationEntries(JSONObject obj) {
+		if (obj == null) {
+			return null;
+		}
+
+		List<Entry> list = new ArrayList<>(obj.size());
+		for (Map.Entry<String, Object> e : obj.entrySet()) {
+			String key = e == null ? null : e.getKey();
+			if (key == null || AbstractVerifier.OPERATION_KEY_LIST.contains(key)) {
+				continue;
+			}
+			list.add(new Entry(key, e.getValue()));
+		}
+		return list.toArray(EMPTY);
+	}
+
+	public JSONObject getStructure() {
+		return structure;
+	}
+	public String getMust() {
+		return must;
+	}
+	public String[] getMusts() {
+		return musts;
+	}
+	public Set<String> getMustSet() {
+		return mustSet;
+	}
+	public String[] getRemoves() {
+		return removes;
+	}
+	public String getRefuse() {
+		return refuse;
+	}
+	public String[] getRefuses() {
+		return refuses;
+	}
+	/**
+	 * @return 为 null 说明用了 "!"，需要根据请求传的 key 来算
+	 * @throws Exception REFUSE 中有重复等错误
+	 */
+	public Set<String> getRefuseSet() throws Exception {
+		if (refuseError != null) {
+			throw refuseError;
+		}
+		return refuseSet;
+	}
+	public String[] getExists() {
+		return exists;
+	}
+	public String[] getUniques() {
+		return uniques;
+	}
+	/**
+	 * @return 不含 TYPE, VERIFY 等操作关键词的键值对
+	 */
+	@NotNull
+	public Entry[] getEntries() {
+		return entries;
+	}
+	public Entry[] getEntries(@NotNull Operation opt) {
+		switch (opt) {
+		case TYPE:
+			return types;
+		case VERIFY:
+			return verifies;
+		case INSERT:
+			return inserts;
+		case UPDATE:
+			return updates;
+		case REPLACE:
+			return replaces;
+		default:
+			return null;
+		}
+	}
+
+}